@@ -0,0 +1,220 @@
+package com.nikolay.nikolay.config;
+
+import org.apache.hc.client5.http.classic.HttpClient;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.core5.http.ClassicHttpRequest;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.web.client.ResourceAccessException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Фабрика запросов Apache HttpClient 5 с общим сроком на запрос.
+ * Таймауты соединения и чтения ограничивают отдельные операции, но медленный сервер, отдающий ответ по байту,
+ * может растянуть запрос сколь угодно долго. Здесь каждый запрос отменяется, если не завершился за totalTimeout.
+ * Задача отмены снимается, как только ответ закрыт, поэтому быстрые запросы не копят задачи в планировщике.
+ * Отмена во время чтения тела ответа выдается как ResourceAccessException — так же, как таймаут до получения ответа.
+ */
+class DeadlineHttpRequestFactory extends HttpComponentsClientHttpRequestFactory {
+
+    private final long totalTimeoutMillis;
+    private final ScheduledThreadPoolExecutor scheduler;
+    // Запрос Apache, созданный в super.createRequest, передается в createRequest того же потока
+    private final ThreadLocal<HttpUriRequestBase> createdRequest = new ThreadLocal<>();
+
+    DeadlineHttpRequestFactory(HttpClient httpClient, Duration totalTimeout) {
+        super(httpClient);
+        this.totalTimeoutMillis = totalTimeout.toMillis();
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "http-client-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Отмененная задача сразу удаляется из очереди, а не ждет своего срока
+        this.scheduler.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    protected void postProcessHttpRequest(ClassicHttpRequest request) {
+        if (request instanceof HttpUriRequestBase uriRequest) {
+            createdRequest.set(uriRequest);
+        }
+    }
+
+    @Override
+    public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+        try {
+            ClientHttpRequest request = super.createRequest(uri, httpMethod);
+            HttpUriRequestBase uriRequest = createdRequest.get();
+            return uriRequest != null ? new DeadlineRequest(request, uriRequest) : request;
+        } finally {
+            createdRequest.remove();
+        }
+    }
+
+    /**
+     * Число задач отмены, ожидающих срока (для проверки, что закрытые ответы их снимают).
+     */
+    int pendingDeadlines() {
+        return scheduler.getQueue().size();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        scheduler.shutdownNow();
+        super.destroy();
+    }
+
+    private ResourceAccessException deadlineExceeded(IOException cause) {
+        return new ResourceAccessException("Запрос отменен: превышен общий срок " + totalTimeoutMillis + " мс", cause);
+    }
+
+    /**
+     * Запрос, который ставит отмену при выполнении и снимает ее при закрытии ответа.
+     */
+    private final class DeadlineRequest implements ClientHttpRequest {
+
+        private final ClientHttpRequest delegate;
+        private final HttpUriRequestBase uriRequest;
+
+        private DeadlineRequest(ClientHttpRequest delegate, HttpUriRequestBase uriRequest) {
+            this.delegate = delegate;
+            this.uriRequest = uriRequest;
+        }
+
+        @Override
+        public ClientHttpResponse execute() throws IOException {
+            ScheduledFuture<?> deadline = scheduler.schedule(uriRequest::cancel, totalTimeoutMillis, TimeUnit.MILLISECONDS);
+            try {
+                return new DeadlineResponse(delegate.execute(), uriRequest, deadline);
+            } catch (IOException | RuntimeException e) {
+                deadline.cancel(false);
+                throw e;
+            }
+        }
+
+        @Override
+        public OutputStream getBody() throws IOException {
+            return delegate.getBody();
+        }
+
+        @Override
+        public HttpMethod getMethod() {
+            return delegate.getMethod();
+        }
+
+        @Override
+        public URI getURI() {
+            return delegate.getURI();
+        }
+
+        @Override
+        public Map<String, Object> getAttributes() {
+            return delegate.getAttributes();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+    }
+
+    /**
+     * Ответ, закрытие которого снимает задачу отмены запроса.
+     */
+    private final class DeadlineResponse implements ClientHttpResponse {
+
+        private final ClientHttpResponse delegate;
+        private final HttpUriRequestBase uriRequest;
+        private final ScheduledFuture<?> deadline;
+        private InputStream body;
+
+        private DeadlineResponse(ClientHttpResponse delegate, HttpUriRequestBase uriRequest, ScheduledFuture<?> deadline) {
+            this.delegate = delegate;
+            this.uriRequest = uriRequest;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public InputStream getBody() throws IOException {
+            if (body == null) {
+                body = new DeadlineInputStream(delegate.getBody(), uriRequest);
+            }
+            return body;
+        }
+
+        @Override
+        public HttpStatusCode getStatusCode() throws IOException {
+            return delegate.getStatusCode();
+        }
+
+        @Override
+        public String getStatusText() throws IOException {
+            return delegate.getStatusText();
+        }
+
+        @Override
+        public HttpHeaders getHeaders() {
+            return delegate.getHeaders();
+        }
+
+        @Override
+        public void close() {
+            deadline.cancel(false);
+            delegate.close();
+        }
+    }
+
+    /**
+     * Тело ответа: ошибка чтения после отмены по сроку выдается как ResourceAccessException.
+     * Иначе RestTemplate обернул бы ее в общий RestClientException извлечения ответа.
+     */
+    private final class DeadlineInputStream extends FilterInputStream {
+
+        private final HttpUriRequestBase uriRequest;
+
+        private DeadlineInputStream(InputStream in, HttpUriRequestBase uriRequest) {
+            super(in);
+            this.uriRequest = uriRequest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException e) {
+                throw translate(e);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (IOException e) {
+                throw translate(e);
+            }
+        }
+
+        private IOException translate(IOException e) {
+            if (uriRequest.isCancelled()) {
+                throw deadlineExceeded(e);
+            }
+            return e;
+        }
+    }
+}
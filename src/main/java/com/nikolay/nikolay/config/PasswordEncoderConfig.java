@@ -1,15 +1,50 @@
 package com.nikolay.nikolay.config;
 
+import com.nikolay.nikolay.security.CalibratedBCryptPasswordEncoder;
+import com.nikolay.nikolay.security.OffloadingPasswordEncoder;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 
+import java.util.Map;
+
 @Configuration
 public class PasswordEncoderConfig {
 
-    @Bean
-    public PasswordEncoder passwordEncoder() {
-        return new BCryptPasswordEncoder();
+    /**
+     * Кодировщик паролей с префиксом алгоритма ({bcrypt}...).
+     * Сложность BCrypt задается app.security.bcrypt.strength или, если она не задана (0), подбирается при старте
+     * под целевое время хеширования. При нескольких экземплярах приложения сложность лучше задать явно,
+     * чтобы все узлы использовали одну и ту же. Хеши без префикса
+     * (сохраненные до появления префиксов) проверяются тем же BCrypt и пересохраняются при следующем входе.
+     * Само хеширование выполняется в отдельном ограниченном пуле (см. OffloadingPasswordEncoder).
+     */
+    @Bean(destroyMethod = "shutdown")
+    public PasswordEncoder passwordEncoder(@Value("${app.security.bcrypt.strength:0}") int fixedStrength,
+                                           @Value("${app.security.bcrypt.target-ms:100}") long targetMillis,
+                                           @Value("${app.security.bcrypt.min-strength:10}") int minStrength,
+                                           @Value("${app.security.bcrypt.max-strength:14}") int maxStrength,
+                                           @Value("${app.security.password-hashing.threads:0}") int threads,
+                                           @Value("${app.security.password-hashing.queue-capacity:64}") int queueCapacity,
+                                           @Value("${app.security.password-hashing.retry-after-seconds:2}") int retryAfterSeconds,
+                                           MeterRegistry meterRegistry) {
+        int strength = fixedStrength > 0
+                ? fixedStrength
+                : CalibratedBCryptPasswordEncoder.calibrate(targetMillis, minStrength, maxStrength);
+        CalibratedBCryptPasswordEncoder bcrypt = new CalibratedBCryptPasswordEncoder(strength, meterRegistry);
+        Gauge.builder("password.hash.bcrypt.strength", bcrypt, CalibratedBCryptPasswordEncoder::getStrength)
+                .description("Текущая сложность BCrypt")
+                .register(meterRegistry);
+
+        DelegatingPasswordEncoder encoder = new DelegatingPasswordEncoder("bcrypt", Map.of("bcrypt", bcrypt));
+        encoder.setDefaultPasswordEncoderForMatches(bcrypt);
+
+        // 0 — по числу доступных ядер
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        return new OffloadingPasswordEncoder(encoder, poolSize, queueCapacity, retryAfterSeconds, meterRegistry);
     }
 }
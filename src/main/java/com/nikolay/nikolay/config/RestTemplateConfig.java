@@ -1,17 +1,94 @@
 package com.nikolay.nikolay.config;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.httpcomponents.hc5.PoolingHttpClientConnectionManagerMetricsBinder;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.client.RestTemplate;
 
+import java.time.Duration;
+
 @Configuration
 public class RestTemplateConfig {
 
     /**
-     * Создает и настраивает объект RestTemplate для работы с API
+     * Пул HTTP-соединений к внешним API (Novofon): keep-alive без повторного TLS-рукопожатия на каждый звонок,
+     * ограничение числа соединений на хост, таймауты соединения и чтения.
+     * Метрики пула: httpcomponents.httpclient.pool.* (тег httpclient=rest-template).
+     */
+    @Bean(destroyMethod = "close")
+    public PoolingHttpClientConnectionManager httpConnectionManager(
+            @Value("${app.http-client.max-total:20}") int maxTotal,
+            @Value("${app.http-client.max-per-route:10}") int maxPerRoute,
+            @Value("${app.http-client.connect-timeout:PT2S}") Duration connectTimeout,
+            @Value("${app.http-client.read-timeout:PT5S}") Duration readTimeout,
+            @Value("${app.http-client.time-to-live:PT5M}") Duration timeToLive,
+            MeterRegistry meterRegistry) {
+        PoolingHttpClientConnectionManager connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(maxTotal)
+                .setMaxConnPerRoute(maxPerRoute)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofMilliseconds(connectTimeout.toMillis()))
+                        .setSocketTimeout(Timeout.ofMilliseconds(readTimeout.toMillis()))
+                        .setTimeToLive(TimeValue.ofMilliseconds(timeToLive.toMillis()))
+                        // Соединение, простоявшее в пуле дольше 2 секунд, проверяется перед повторным использованием
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(2))
+                        .build())
+                .build();
+        new PoolingHttpClientConnectionManagerMetricsBinder(connectionManager, "rest-template").bindTo(meterRegistry);
+        return connectionManager;
+    }
+
+    /**
+     * HTTP-клиент поверх пула. Фоновый поток закрывает соединения, простаивающие дольше idle-timeout
+     * (сервер их все равно закроет, и первый запрос после паузы получил бы ошибку).
+     */
+    @Bean(destroyMethod = "close")
+    public CloseableHttpClient httpClient(
+            PoolingHttpClientConnectionManager httpConnectionManager,
+            @Value("${app.http-client.pool-timeout:PT1S}") Duration poolTimeout,
+            @Value("${app.http-client.read-timeout:PT5S}") Duration readTimeout,
+            @Value("${app.http-client.idle-timeout:PT30S}") Duration idleTimeout) {
+        return HttpClients.custom()
+                .setConnectionManager(httpConnectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        // Ожидание свободного соединения, когда пул исчерпан
+                        .setConnectionRequestTimeout(Timeout.ofMilliseconds(poolTimeout.toMillis()))
+                        .setResponseTimeout(Timeout.ofMilliseconds(readTimeout.toMillis()))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(idleTimeout.toMillis()))
+                .build();
+    }
+
+    /**
+     * Фабрика запросов поверх пула: каждый запрос дополнительно ограничен общим сроком total-timeout.
+     */
+    @Bean
+    DeadlineHttpRequestFactory httpRequestFactory(
+            CloseableHttpClient httpClient,
+            @Value("${app.http-client.total-timeout:PT10S}") Duration totalTimeout) {
+        return new DeadlineHttpRequestFactory(httpClient, totalTimeout);
+    }
+
+    /**
+     * Создает и настраивает объект RestTemplate для работы с API.
+     * Через RestTemplateBuilder, чтобы запросы попадали в метрику http.client.requests.
      */
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public RestTemplate restTemplate(RestTemplateBuilder builder, DeadlineHttpRequestFactory httpRequestFactory) {
+        return builder
+                .requestFactory(() -> httpRequestFactory)
+                .build();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,136 @@
+package com.nikolay.nikolay.config;
+
+import org.springframework.core.serializer.DefaultDeserializer;
+import org.springframework.core.serializer.DefaultSerializer;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Компактное двоичное представление атрибутов HTTP-сессии для хранения в БД.
+ *
+ * Формат: первый байт — тег типа, далее значение. Строки, Boolean, Long и Integer (почти все атрибуты
+ * регистрации и привязки Telegram) занимают несколько байт вместо ~80+ байт Java-сериализации.
+ * Контекст безопасности с UsernamePasswordAuthenticationToken сохраняется как имя пользователя и список ролей.
+ * Остальные типы сериализуются стандартной Java-сериализацией (тег JAVA).
+ */
+final class SessionAttributeCodec {
+
+    private static final byte TAG_JAVA = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_BOOLEAN = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_INTEGER = 4;
+    private static final byte TAG_SECURITY_CONTEXT = 5;
+
+    // Первый байт потока Java-сериализации (0xACED) — значения, записанные без тега
+    private static final byte JAVA_STREAM_MAGIC = (byte) 0xAC;
+
+    private final DefaultSerializer javaSerializer = new DefaultSerializer();
+    private final DefaultDeserializer javaDeserializer;
+
+    SessionAttributeCodec(ClassLoader classLoader) {
+        this.javaDeserializer = new DefaultDeserializer(classLoader);
+    }
+
+    byte[] encode(Object value) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            if (value instanceof String string) {
+                out.writeByte(TAG_STRING);
+                out.write(string.getBytes(StandardCharsets.UTF_8));
+            } else if (value instanceof Boolean bool) {
+                out.writeByte(TAG_BOOLEAN);
+                out.writeBoolean(bool);
+            } else if (value instanceof Long number) {
+                out.writeByte(TAG_LONG);
+                out.writeLong(number);
+            } else if (value instanceof Integer number) {
+                out.writeByte(TAG_INTEGER);
+                out.writeInt(number);
+            } else if (isCompactSecurityContext(value)) {
+                out.writeByte(TAG_SECURITY_CONTEXT);
+                writeSecurityContext((SecurityContext) value, out);
+            } else {
+                out.writeByte(TAG_JAVA);
+                javaSerializer.serialize(value, out);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось сериализовать атрибут сессии " + value.getClass().getName(), e);
+        }
+        return bytes.toByteArray();
+    }
+
+    Object decode(byte[] data) {
+        if (data.length == 0) {
+            return null;
+        }
+        try {
+            if (data[0] == JAVA_STREAM_MAGIC) {
+                return javaDeserializer.deserialize(new ByteArrayInputStream(data));
+            }
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data, 1, data.length - 1));
+            return switch (data[0]) {
+                case TAG_STRING -> new String(data, 1, data.length - 1, StandardCharsets.UTF_8);
+                case TAG_BOOLEAN -> in.readBoolean();
+                case TAG_LONG -> in.readLong();
+                case TAG_INTEGER -> in.readInt();
+                case TAG_SECURITY_CONTEXT -> readSecurityContext(in);
+                case TAG_JAVA -> javaDeserializer.deserialize(in);
+                default -> throw new IllegalStateException("Неизвестный тег атрибута сессии: " + data[0]);
+            };
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось десериализовать атрибут сессии", e);
+        }
+    }
+
+    /**
+     * Компактно сохраняем только обычный контекст после входа по телефону/паролю или через Telegram:
+     * principal — UserDetails, пароль в сессии не нужен.
+     */
+    private static boolean isCompactSecurityContext(Object value) {
+        return value instanceof SecurityContextImpl context
+                && context.getAuthentication() != null
+                && context.getAuthentication().getClass() == UsernamePasswordAuthenticationToken.class
+                && context.getAuthentication().isAuthenticated()
+                && context.getAuthentication().getPrincipal() instanceof UserDetails;
+    }
+
+    private static void writeSecurityContext(SecurityContext context, DataOutputStream out) throws IOException {
+        UserDetails principal = (UserDetails) context.getAuthentication().getPrincipal();
+        out.writeUTF(principal.getUsername());
+        out.writeShort(principal.getAuthorities().size());
+        for (GrantedAuthority authority : principal.getAuthorities()) {
+            out.writeUTF(authority.getAuthority());
+        }
+    }
+
+    private static SecurityContext readSecurityContext(DataInputStream in) throws IOException {
+        String username = in.readUTF();
+        int count = in.readUnsignedShort();
+        List<GrantedAuthority> authorities = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            authorities.add(new SimpleGrantedAuthority(in.readUTF()));
+        }
+        UserDetails principal = User.withUsername(username)
+                .password("")
+                .authorities(authorities)
+                .build();
+        return new SecurityContextImpl(
+                UsernamePasswordAuthenticationToken.authenticated(principal, null, principal.getAuthorities()));
+    }
+}
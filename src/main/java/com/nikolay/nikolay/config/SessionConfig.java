@@ -0,0 +1,62 @@
+package com.nikolay.nikolay.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.GenericConversionService;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.session.config.SessionRepositoryCustomizer;
+import org.springframework.session.jdbc.JdbcIndexedSessionRepository;
+
+/**
+ * Настройка хранения HTTP-сессий в MySQL (Spring Session JDBC).
+ * Сессии доступны с любого узла, поэтому приложение можно запускать в нескольких экземплярах без sticky sessions.
+ */
+@Configuration
+public class SessionConfig {
+
+    /**
+     * Сериализация атрибутов сессии в компактном двоичном формате (см. SessionAttributeCodec).
+     * Spring Session JDBC использует бин с этим именем для преобразования атрибутов в byte[] и обратно.
+     */
+    @Bean("springSessionConversionService")
+    public ConversionService springSessionConversionService() {
+        SessionAttributeCodec codec = new SessionAttributeCodec(getClass().getClassLoader());
+        GenericConversionService conversionService = new GenericConversionService();
+        conversionService.addConverter(Object.class, byte[].class, codec::encode);
+        conversionService.addConverter(byte[].class, Object.class, codec::decode);
+        return conversionService;
+    }
+
+    /**
+     * Удаление истекших сессий порциями: один DELETE за запуск очистки затрагивает не больше cleanup-batch-size строк,
+     * чтобы не держать долгие блокировки на таблицах сессий после всплеска анонимного трафика.
+     * Атрибуты удаляются каскадно (внешний ключ ON DELETE CASCADE).
+     */
+    @Bean
+    public SessionRepositoryCustomizer<JdbcIndexedSessionRepository> sessionCleanupCustomizer(
+            @Value("${app.session.cleanup-batch-size:1000}") int batchSize) {
+        return repository -> repository.setDeleteSessionsByExpiryTimeQuery(
+                "DELETE FROM %TABLE_NAME% WHERE EXPIRY_TIME < ? LIMIT " + batchSize);
+    }
+
+    /**
+     * Число сессий, хранящихся в БД (метрика http.sessions.stored).
+     * Позволяет сравнить количество сессий до и после перехода анонимных ссылок по QR-кодам на cookie.
+     */
+    @Bean
+    public MeterBinder storedSessionsMetric(JdbcTemplate jdbcTemplate,
+                                            @Value("${spring.session.jdbc.table-name:SPRING_SESSION}") String tableName) {
+        String countQuery = "SELECT COUNT(*) FROM " + tableName;
+        return registry -> Gauge.builder("http.sessions.stored", jdbcTemplate,
+                        template -> {
+                            Long count = template.queryForObject(countQuery, Long.class);
+                            return count != null ? count : 0;
+                        })
+                .description("Количество HTTP-сессий в таблице Spring Session")
+                .register(registry);
+    }
+}
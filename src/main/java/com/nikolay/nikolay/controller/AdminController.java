@@ -1,32 +1,66 @@
 package com.nikolay.nikolay.controller;
 
+import com.nikolay.nikolay.dto.ExportJobStatus;
+import com.nikolay.nikolay.dto.InstructionSummary;
+import com.nikolay.nikolay.dto.KeysetPage;
+import com.nikolay.nikolay.dto.UserImportReport;
+import com.nikolay.nikolay.enums.Role;
 import com.nikolay.nikolay.model.Instruction;
 import com.nikolay.nikolay.model.User;
+import com.nikolay.nikolay.security.PasswordHashingRejectedException;
+import com.nikolay.nikolay.service.ExportJobService;
 import com.nikolay.nikolay.service.FileStorageService;
 import com.nikolay.nikolay.service.InstructionService;
+import com.nikolay.nikolay.service.UserExportService;
+import com.nikolay.nikolay.service.UserImportService;
 import com.nikolay.nikolay.service.UserService;
 import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.util.List;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 @Controller
 @RequestMapping("/admin")
 public class AdminController {
+    private static final Logger logger = LoggerFactory.getLogger(AdminController.class);
+
+    // Размер буфера выгрузки CSV
+    private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+
     private final InstructionService instructionService;
     private final UserService userService;
     private final FileStorageService fileStorageService;
+    private final UserImportService userImportService;
+    private final UserExportService userExportService;
+    private final ExportJobService exportJobService;
 
-    public AdminController(InstructionService instructionService, UserService userService, FileStorageService fileStorageService) {
+    public AdminController(InstructionService instructionService, UserService userService, FileStorageService fileStorageService,
+                           UserImportService userImportService, UserExportService userExportService,
+                           ExportJobService exportJobService) {
         this.instructionService = instructionService;
         this.userService = userService;
         this.fileStorageService = fileStorageService;
+        this.userImportService = userImportService;
+        this.userExportService = userExportService;
+        this.exportJobService = exportJobService;
     }
 
     @GetMapping
@@ -35,9 +69,13 @@ public class AdminController {
     }
 
     @GetMapping("/instructions")
-    public String listInstructions(Model model) {
-        List<Instruction> instructions = instructionService.getAllInstructions();
-        model.addAttribute("instructions", instructions);
+    public String listInstructions(@RequestParam(value = "after", required = false) Long after,
+                                   @RequestParam(value = "size", required = false) Integer size,
+                                   Model model) {
+        KeysetPage<InstructionSummary> page = instructionService.getInstructionSummaryPage(after, size);
+        model.addAttribute("instructions", page.getItems());
+        model.addAttribute("page", page);
+        model.addAttribute("firstPage", after == null);
         return "admin/instructions";
     }
 
@@ -69,41 +107,113 @@ public class AdminController {
     }
 
     @GetMapping("/users")
-    public String listUsers(Model model) {
-        List<User> users = userService.getAllUsers();
-        model.addAttribute("users", users);
+    public String listUsers(@RequestParam(value = "after", required = false) Long after,
+                            @RequestParam(value = "size", required = false) Integer size,
+                            @RequestParam(value = "phone", required = false) String phone,
+                            @RequestParam(value = "telegram", required = false) Boolean telegram,
+                            @RequestParam(value = "role", required = false) Role role,
+                            Model model) {
+        KeysetPage<User> page = userService.getUsersPage(after, phone, telegram, role, size);
+        model.addAttribute("users", page.getItems());
+        model.addAttribute("page", page);
+        model.addAttribute("firstPage", after == null);
+        // Текущие значения фильтров — для формы и ссылок пагинации
+        model.addAttribute("phone", phone);
+        model.addAttribute("telegram", telegram);
+        model.addAttribute("role", role);
+        model.addAttribute("roles", Role.values());
         return "admin/users";
     }
 
+    @GetMapping("/users/import")
+    public String importUsersForm() {
+        return "admin/users_import";
+    }
+
+    /**
+     * Массовый импорт пользователей из CSV: телефон;роль;QR-коды через запятую.
+     */
+    @PostMapping("/users/import")
+    public String importUsers(@RequestParam("file") MultipartFile file, Model model) {
+        if (file.isEmpty()) {
+            model.addAttribute("errorMessage", "Файл пустой!");
+            return "admin/users_import";
+        }
+        try {
+            UserImportReport report = userImportService.importCsv(file.getInputStream());
+            model.addAttribute("report", report);
+        } catch (PasswordHashingRejectedException e) {
+            model.addAttribute("errorMessage", "Сервер перегружен. Повторите импорт через несколько секунд.");
+        } catch (IOException e) {
+            logger.error("Ошибка чтения файла импорта {}", file.getOriginalFilename(), e);
+            model.addAttribute("errorMessage", "Не удалось прочитать файл: " + e.getMessage());
+        }
+        return "admin/users_import";
+    }
+
+    /**
+     * Выгрузка всех пользователей в CSV потоком: память не зависит от числа пользователей,
+     * данные уходят клиенту пачками через буфер, а не отдельной записью на каждую строку.
+     */
     @GetMapping("/users/export")
     @ResponseBody
     public void exportUsers(HttpServletResponse response) throws IOException {
-        List<User> users = userService.getAllUsers();
-
         response.setContentType("text/csv; charset=UTF-8");
         response.setHeader("Content-Disposition", "attachment; filename=users.csv");
         response.setCharacterEncoding("UTF-8");
 
-        PrintWriter writer = new PrintWriter(response.getOutputStream(), true);
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8), EXPORT_BUFFER_SIZE);
+        userExportService.writeCsv(writer);
+    }
 
-        // Добавляем BOM для корректного отображения в Excel
-        writer.write('\uFEFF');
+    /**
+     * Запускает фоновую выгрузку пользователей и открывает страницу ее прогресса.
+     */
+    @PostMapping("/users/export-jobs")
+    public String startUsersExportJob(RedirectAttributes redirectAttributes) {
+        try {
+            String jobId = exportJobService.startUsersExport();
+            return "redirect:/admin/export-jobs/" + jobId;
+        } catch (RejectedExecutionException e) {
+            redirectAttributes.addFlashAttribute("errorMessage",
+                    "Слишком много выгрузок выполняется одновременно. Попробуйте позже.");
+            return "redirect:/admin/users";
+        }
+    }
 
-        // Используем точку с запятой как разделитель
-        writer.println("ID;Телефон;Telegram;Реферальная ссылка;Роль");
+    @GetMapping("/export-jobs/{id}")
+    public String exportJobPage(@PathVariable String id, Model model) {
+        ExportJobStatus status = exportJobService.getStatus(id)
+                .orElseThrow(() -> new IllegalArgumentException("Выгрузка не найдена или срок ее хранения истек"));
+        model.addAttribute("job", status);
+        return "admin/export_job";
+    }
 
-        for (User user : users) {
-            writer.println(
-                    "\"" + user.getId() + "\";" +
-                            "\"" + user.getPhone() + "\";" +
-                            "\"" + (user.getTelegram() != null ? user.getTelegram() : "") + "\";" +
-                            "\"" + user.getReferralLink() + "\";" +
-                            "\"" + user.getRole() + "\""
-            );
-        }
+    /**
+     * Состояние выгрузки для опроса со страницы прогресса.
+     */
+    @GetMapping("/export-jobs/{id}/status")
+    @ResponseBody
+    public ResponseEntity<ExportJobStatus> exportJobStatus(@PathVariable String id) {
+        return exportJobService.getStatus(id)
+                .map(ResponseEntity::ok)
+                .orElseGet(() -> ResponseEntity.notFound().build());
+    }
 
-        writer.flush();
-        writer.close();
+    /**
+     * Скачивание готовой выгрузки. Content-Length и запросы Range обрабатываются Spring MVC для Resource,
+     * поэтому прерванную загрузку большого файла можно продолжить.
+     */
+    @GetMapping("/export-jobs/{id}/download")
+    public ResponseEntity<Resource> downloadExportJob(@PathVariable String id) {
+        return exportJobService.getFile(id)
+                .map(file -> ResponseEntity.ok()
+                        .contentType(MediaType.parseMediaType("application/gzip"))
+                        .header(HttpHeaders.CONTENT_DISPOSITION,
+                                ContentDisposition.attachment().filename("users.csv.gz").build().toString())
+                        .<Resource>body(new FileSystemResource(file)))
+                .orElseGet(() -> ResponseEntity.notFound().build());
     }
 
     @PostMapping("/instructions/uploadImage")
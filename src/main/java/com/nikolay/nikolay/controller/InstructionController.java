@@ -1,25 +1,32 @@
 package com.nikolay.nikolay.controller;
 
-import com.nikolay.nikolay.enums.Role;
-import com.nikolay.nikolay.model.Instruction;
+import com.nikolay.nikolay.dto.InstructionPage;
+import com.nikolay.nikolay.dto.InstructionSummary;
+import com.nikolay.nikolay.dto.UserAccessSet;
+import com.nikolay.nikolay.dto.UserSummary;
 import com.nikolay.nikolay.model.User;
+import com.nikolay.nikolay.security.CurrentUser;
+import com.nikolay.nikolay.service.InstructionAccessService;
+import com.nikolay.nikolay.service.InstructionSearchService;
 import com.nikolay.nikolay.service.InstructionService;
+import com.nikolay.nikolay.service.QrCodeResolver;
 import com.nikolay.nikolay.service.TelegramAuthService;
 import com.nikolay.nikolay.service.UserService;
-import jakarta.servlet.http.HttpSession;
+import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.security.core.Authentication;
+import org.springframework.http.HttpHeaders;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+import org.springframework.web.util.UriComponentsBuilder;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
@@ -34,11 +41,19 @@ public class InstructionController {
     private final InstructionService instructionService;
     private final UserService userService;
     private final TelegramAuthService telegramAuthService;
+    private final InstructionAccessService instructionAccessService;
+    private final InstructionSearchService instructionSearchService;
+    private final QrCodeResolver qrCodeResolver;
 
-    public InstructionController(InstructionService instructionService, UserService userService, TelegramAuthService telegramAuthService) {
+    public InstructionController(InstructionService instructionService, UserService userService,
+                                 TelegramAuthService telegramAuthService, InstructionAccessService instructionAccessService,
+                                 InstructionSearchService instructionSearchService, QrCodeResolver qrCodeResolver) {
         this.instructionService = instructionService;
         this.userService = userService;
         this.telegramAuthService = telegramAuthService;
+        this.instructionAccessService = instructionAccessService;
+        this.instructionSearchService = instructionSearchService;
+        this.qrCodeResolver = qrCodeResolver;
     }
 
     /**
@@ -47,7 +62,7 @@ public class InstructionController {
     @GetMapping("/ref")
     public String handleReferral(
             @RequestParam(value = "code", required = false) String refCode,
-            HttpSession session,
+            @CurrentUser UserSummary user,
             RedirectAttributes redirectAttributes) {
 
         if (refCode == null || refCode.isEmpty()) {
@@ -59,55 +74,41 @@ public class InstructionController {
         logger.info("Получен запрос с кодом реферала: {}", refCode);
 
         // Проверяем существование инструкции по коду
-        Optional<Instruction> instructionOpt = instructionService.findByQrCode(refCode);
+        Optional<InstructionSummary> instructionOpt = qrCodeResolver.resolve(refCode);
         if (instructionOpt.isEmpty()) {
             logger.warn("Инструкция с кодом {} не найдена", refCode);
             redirectAttributes.addFlashAttribute("error", "Инструкция не найдена");
             return "redirect:/";
         }
 
-        Instruction instruction = instructionOpt.get();
+        InstructionSummary instruction = instructionOpt.get();
         logger.info("Найдена инструкция: {}", instruction.getTitle());
 
         // Проверяем, авторизован ли пользователь
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        boolean isAuthenticated = authentication != null &&
-                authentication.isAuthenticated() &&
-                !"anonymousUser".equals(authentication.getPrincipal().toString());
+        if (user != null) {
+            // Если пользователь авторизован, выдаем ему доступ к инструкции
+            userService.handleReferralLink(user.getId(), refCode);
 
-        if (isAuthenticated) {
-            // Если пользователь авторизован, добавляем ему доступ к инструкции
-            String userPhone = authentication.getName();
-            Optional<User> userOpt = userService.findByPhone(userPhone);
-
-            if (userOpt.isPresent()) {
-                User user = userOpt.get();
-
-                // Добавляем QR-код к пользователю
-                userService.handleReferralLink(user, refCode);
-                userService.registerUser(user);
-
-                logger.info("Пользователю {} добавлен доступ к инструкции ID: {}, код: {}",
-                        userPhone, instruction.getId(), refCode);
-
-                redirectAttributes.addFlashAttribute("success",
-                        "Вам открыт доступ к инструкции: " + instruction.getTitle());
-
-                // Перенаправляем на страницу инструкции
-                return "redirect:/instruction/" + instruction.getId();
-            } else {
-                logger.error("Пользователь аутентифицирован, но не найден в БД: {}", userPhone);
-                SecurityContextHolder.clearContext();
-                redirectAttributes.addFlashAttribute("error", "Ошибка идентификации пользователя");
-                return "redirect:/login";
-            }
-        } else {
-            // Если пользователь не авторизован, сохраняем QR-код в сессии и перенаправляем на регистрацию
-            session.setAttribute("qrCodeForRegistration", refCode);
-            logger.info("Пользователь не авторизован. Код {} сохранен в сессии для регистрации", refCode);
+            logger.info("Пользователю {} добавлен доступ к инструкции ID: {}, код: {}",
+                    user.getPhone(), instruction.getId(), refCode);
+
+            redirectAttributes.addFlashAttribute("success",
+                    "Вам открыт доступ к инструкции: " + instruction.getTitle());
 
-            // Перенаправляем на регистрацию
-            return "redirect:/register?ref=" + refCode;
+            // Перенаправляем на страницу инструкции
+            return "redirect:/instruction/" + instruction.getId();
+        } else {
+            // Если пользователь не авторизован, перенаправляем на регистрацию.
+            // Сессию не создаем: QR-код запомнит страница регистрации в подписанной cookie
+            logger.info("Пользователь не авторизован. Код {} передан на страницу регистрации", refCode);
+
+            // Код приходит от клиента: кодируем его как значение переменной, чтобы &, # и пробелы не ломали URL
+            String registerUrl = UriComponentsBuilder.fromPath("/register")
+                    .queryParam("ref", "{ref}")
+                    .encode()
+                    .buildAndExpand(refCode)
+                    .toUriString();
+            return "redirect:" + registerUrl;
         }
     }
 
@@ -117,6 +118,7 @@ public class InstructionController {
      */
     @GetMapping("/")
     public String home(Model model,
+                       @CurrentUser UserSummary currentUser,
                        @RequestParam(required = false) String telegram_auth,
                        @RequestParam(required = false) String telegram_id) {
 
@@ -130,6 +132,7 @@ public class InstructionController {
                     logger.info("Восстановление авторизации для пользователя {} с Telegram ID: {}",
                             user.getPhone(), telegramIdLong);
                     telegramAuthService.authenticateUser(user);
+                    currentUser = UserSummary.from(user);
                     model.addAttribute("telegramAuthRefreshed", true);
                 }
             } catch (Exception e) {
@@ -137,52 +140,33 @@ public class InstructionController {
             }
         }
 
-        // Получаем текущую аутентификацию из контекста Spring Security
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        boolean isAuthenticated = authentication != null && authentication.isAuthenticated() &&
-                !"anonymousUser".equals(authentication.getPrincipal().toString());
-
-        User currentUser = null;
-        List<String> userReferralLinks = new ArrayList<>();
+        boolean isAuthenticated = currentUser != null;
+        UserAccessSet accessSet = UserAccessSet.EMPTY;
         boolean isAdmin = false;
 
-        // Если пользователь аутентифицирован, получаем его данные
+        // Если пользователь аутентифицирован, получаем его набор доступа
         if (isAuthenticated) {
-            String principalName = authentication.getName();
-            Optional<User> userOpt = userService.findByPhone(principalName);
-
-            if (userOpt.isPresent()) {
-                currentUser = userOpt.get();
-                isAdmin = currentUser.getRole() == Role.ADMIN;
-                String referralLinkString = currentUser.getReferralLink();
-
-                if (referralLinkString != null && !referralLinkString.isEmpty()) {
-                    userReferralLinks = Arrays.asList(referralLinkString.split("\\s*,\\s*"));
-                }
-                logger.info("Пользователь {} (Админ: {}) имеет доступ к кодам: {}",
-                        principalName, isAdmin, userReferralLinks);
-            } else {
-                logger.warn("Аутентифицированный пользователь {} не найден в базе данных!", principalName);
-                isAuthenticated = false;
+            isAdmin = currentUser.isAdmin();
+            if (!isAdmin) {
+                accessSet = instructionAccessService.getAccessSet(currentUser.getId());
             }
+            logger.info("Пользователь {} (Админ: {}) имеет доступ к {} инструкциям",
+                    currentUser.getPhone(), isAdmin, accessSet.size());
         }
 
-        // Получаем все инструкции из базы
-        List<Instruction> allInstructions = instructionService.getAllInstructions();
+        // Получаем облегченный список инструкций (без содержимого)
+        List<InstructionSummary> allInstructions = instructionService.getInstructionSummaries();
 
         // Обрабатываем каждую инструкцию для определения доступности
-        final List<String> finalUserReferralLinks = userReferralLinks;
+        final UserAccessSet finalAccessSet = accessSet;
         final boolean finalIsAdmin = isAdmin;
         final boolean finalIsAuthenticated = isAuthenticated;
 
-        List<Instruction> processedInstructions = allInstructions.stream().map(instruction -> {
-            // Проверяем доступ: админ или пользователь аутентифицирован и имеет нужный QR-код
-            boolean isAvailable = finalIsAdmin || (finalIsAuthenticated &&
-                    finalUserReferralLinks.contains(instruction.getQrCode()));
-            instruction.setAvailable(isAvailable);
-            instruction.setHref(isAvailable ? "/instruction/" + instruction.getId() : "javascript:void(0);");
-            return instruction;
-        }).collect(Collectors.toList());
+        List<InstructionSummary> processedInstructions = allInstructions.stream()
+                // Проверяем доступ: админ или пользователь аутентифицирован и имеет доступ к инструкции
+                .map(instruction -> instruction.withAvailable(finalIsAdmin || (finalIsAuthenticated &&
+                        finalAccessSet.contains(instruction.getId()))))
+                .collect(Collectors.toList());
 
         // Добавляем данные в модель для шаблона
         model.addAttribute("instructions", processedInstructions);
@@ -192,65 +176,129 @@ public class InstructionController {
         return "index";
     }
 
+    /**
+     * Полнотекстовый поиск по инструкциям.
+     * Показывает только инструкции, доступные текущему пользователю.
+     */
+    @GetMapping("/search")
+    public String search(@RequestParam(value = "q", required = false) String query,
+                         @CurrentUser UserSummary user,
+                         Model model, RedirectAttributes redirectAttributes) {
+        if (query == null || query.isBlank()) {
+            return "redirect:/";
+        }
+
+        if (user == null) {
+            redirectAttributes.addFlashAttribute("error", "Ошибка получения данных пользователя.");
+            return "redirect:/login";
+        }
+
+        boolean isAdmin = user.isAdmin();
+        UserAccessSet accessSet = isAdmin ? UserAccessSet.EMPTY : instructionAccessService.getAccessSet(user.getId());
+
+        List<InstructionSummary> results = instructionSearchService.search(query, id -> isAdmin || accessSet.contains(id)).stream()
+                .map(instructionService::findSummaryById)
+                .flatMap(Optional::stream)
+                .map(instruction -> instruction.withAvailable(true))
+                .collect(Collectors.toList());
+        logger.debug("Поиск '{}' пользователем {}: найдено {} доступных инструкций",
+                query, user.getPhone(), results.size());
+
+        model.addAttribute("instructions", results);
+        model.addAttribute("isAuthenticated", true);
+        model.addAttribute("isAdmin", isAdmin);
+        model.addAttribute("searchQuery", query);
+        return "index";
+    }
+
     /**
      * Отображает страницу конкретной инструкции по ее ID.
      * Проверяет права доступа текущего пользователя.
+     * Повторные запросы с актуальным If-None-Match/If-Modified-Since получают 304
+     * без загрузки содержимого и без рендеринга шаблона.
+     * Сохраненная сжатая страница общая для всех пользователей, поэтому ответ с flash-сообщением
+     * (например, после перехода по QR-коду) рендерится шаблоном и не кэшируется.
      */
     @GetMapping("/instruction/{id}")
-    public String viewInstruction(@PathVariable Long id, Model model, RedirectAttributes redirectAttributes) {
-        // Получаем инструкцию по ID
-        Optional<Instruction> instructionOpt = instructionService.getInstructionById(id);
+    public String viewInstruction(@PathVariable Long id, @CurrentUser UserSummary user,
+                                  Model model, RedirectAttributes redirectAttributes,
+                                  WebRequest webRequest, HttpServletResponse response) throws IOException {
+        // Получаем инструкцию по ID из каталога (без содержимого)
+        Optional<InstructionSummary> instructionOpt = instructionService.findSummaryById(id);
         if (instructionOpt.isEmpty()) {
             logger.warn("Запрошена несуществующая инструкция с ID: {}", id);
             redirectAttributes.addFlashAttribute("error", "Инструкция не найдена.");
             return "redirect:/";
         }
 
-        Instruction instruction = instructionOpt.get();
+        InstructionSummary instruction = instructionOpt.get();
         logger.info("Запрос на просмотр инструкции ID: {}, Title: '{}', QR: {}",
                 instruction.getId(), instruction.getTitle(), instruction.getQrCode());
 
-        // Проверяем аутентификацию пользователя
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        if (authentication == null || !authentication.isAuthenticated() ||
-                "anonymousUser".equals(authentication.getPrincipal().toString())) {
-            logger.warn("Анонимный доступ к инструкции ID: {}", id);
+        // Проверяем аутентификацию пользователя (null — анонимный запрос или пользователь не найден в БД)
+        if (user == null) {
+            logger.warn("Доступ к инструкции ID: {} без авторизованного пользователя", id);
             redirectAttributes.addFlashAttribute("error", "Для доступа к инструкции необходимо войти.");
-            return "redirect:/login";
-        }
-
-        // Получаем пользователя из контекста
-        String principalName = authentication.getName();
-        Optional<User> userOpt = userService.findByPhone(principalName);
-        if (userOpt.isEmpty()) {
-            logger.error("Аутентифицированный пользователь {} не найден в БД при доступе к инструкции ID: {}",
-                    principalName, id);
-            redirectAttributes.addFlashAttribute("error", "Ошибка получения данных пользователя.");
             SecurityContextHolder.clearContext();
             return "redirect:/login";
         }
 
-        User user = userOpt.get();
-        boolean isAdmin = user.getRole() == Role.ADMIN;
-
-        // Проверяем доступ
-        boolean hasAccess = isAdmin;
-        if (!hasAccess) {
-            // Проверяем наличие QR-кода у обычного пользователя
-            String userLinks = user.getReferralLink();
-            if (userLinks != null && !userLinks.isEmpty()) {
-                List<String> userQrCodes = Arrays.asList(userLinks.split("\\s*,\\s*"));
-                if (userQrCodes.contains(instruction.getQrCode())) {
-                    hasAccess = true;
-                }
-            }
-        }
+        String principalName = user.getPhone();
+        boolean isAdmin = user.isAdmin();
+
+        // Проверяем доступ: админ или запись в user_instruction_access
+        boolean hasAccess = isAdmin || instructionAccessService.hasAccess(user.getId(), instruction.getId());
 
         // Если доступ есть - отображаем инструкцию
         if (hasAccess) {
             logger.info("Доступ к инструкции ID: {} предоставлен пользователю: {} (Админ: {})",
                     id, principalName, isAdmin);
-            model.addAttribute("instruction", instruction);
+
+            if (hasFlashMessage(model)) {
+                // Сообщение показывается один раз: такую страницу нельзя ни отдать из сохраненной, ни закэшировать
+                Optional<InstructionPage> pageOpt = instructionService.getInstructionPage(id);
+                if (pageOpt.isEmpty()) {
+                    logger.warn("Инструкция ID: {} удалена во время запроса", id);
+                    redirectAttributes.addFlashAttribute("error", "Инструкция не найдена.");
+                    return "redirect:/";
+                }
+                response.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-store");
+                model.addAttribute("instruction", pageOpt.get());
+                return "instruction";
+            }
+
+            // Страница зависит от прав пользователя: разрешаем хранить только в браузере и всегда перепроверять
+            response.setHeader(HttpHeaders.CACHE_CONTROL, "private, no-cache");
+            response.setHeader(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+            // Сжатое и несжатое представления различаются, поэтому у них разные строгие ETag
+            boolean gzip = acceptsGzip(webRequest.getHeader(HttpHeaders.ACCEPT_ENCODING));
+            String eTag = instruction.getETag();
+            if (eTag != null && gzip) {
+                eTag = eTag.substring(0, eTag.length() - 1) + "-gzip\"";
+            }
+            if (eTag != null && instruction.getUpdatedAt() != null
+                    && webRequest.checkNotModified(eTag, instruction.getUpdatedAt().toEpochMilli())) {
+                logger.debug("Инструкция ID: {} не изменилась, ответ 304", id);
+                return null;
+            }
+
+            Optional<InstructionPage> pageOpt = instructionService.getInstructionPage(id);
+            if (pageOpt.isEmpty()) {
+                logger.warn("Инструкция ID: {} удалена во время запроса", id);
+                redirectAttributes.addFlashAttribute("error", "Инструкция не найдена.");
+                return "redirect:/";
+            }
+            InstructionPage page = pageOpt.get();
+            if (gzip && page.getContentGzip() != null) {
+                // Отдаем страницу, сжатую при сохранении инструкции, без рендеринга и сжатия на запрос
+                byte[] body = page.getContentGzip();
+                response.setContentType("text/html;charset=UTF-8");
+                response.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+                response.setContentLength(body.length);
+                response.getOutputStream().write(body);
+                return null;
+            }
+            model.addAttribute("instruction", page);
             return "instruction";
         } else {
             // Если доступа нет - перенаправляем на главную
@@ -259,4 +307,39 @@ public class InstructionController {
             return "redirect:/";
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Есть ли в модели flash-сообщение, переданное через редирект (атрибуты success/error).
+     */
+    private static boolean hasFlashMessage(Model model) {
+        return model.containsAttribute("success") || model.containsAttribute("error");
+    }
+
+    /**
+     * Проверяет, принимает ли клиент gzip, по заголовку Accept-Encoding (с учетом q=0).
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return false;
+        }
+        for (String token : acceptEncoding.split(",")) {
+            String[] parts = token.trim().split(";");
+            String coding = parts[0].trim();
+            if (!"gzip".equalsIgnoreCase(coding) && !"*".equals(coding)) {
+                continue;
+            }
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        return Double.parseDouble(param.substring(2)) > 0;
+                    } catch (NumberFormatException e) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+}
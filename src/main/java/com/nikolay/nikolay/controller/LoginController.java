@@ -1,6 +1,8 @@
 package com.nikolay.nikolay.controller;
 
-import jakarta.servlet.http.HttpSession;
+import com.nikolay.nikolay.service.PendingReferralService;
+import com.nikolay.nikolay.service.QrCodeResolver;
+import jakarta.servlet.http.HttpServletResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -28,6 +30,13 @@ public class LoginController {
     @Value("${app.base-url}")
     private String appBaseUrl;
 
+    private final QrCodeResolver qrCodeResolver;
+    private final PendingReferralService pendingReferralService;
+
+    public LoginController(QrCodeResolver qrCodeResolver, PendingReferralService pendingReferralService) {
+        this.qrCodeResolver = qrCodeResolver;
+        this.pendingReferralService = pendingReferralService;
+    }
 
     /**
      * Отображает форму входа.
@@ -35,7 +44,7 @@ public class LoginController {
      * @param error Наличие параметра error в URL указывает на неудачную попытку входа.
      * @param logout Наличие параметра logout в URL указывает, что пользователь только что вышел.
      * @param model Модель для передачи данных в шаблон.
-     * @param session Сессия для сохранения QR-кода.
+     * @param response Ответ, в который записывается cookie с QR-кодом (сессия для этого не создается).
      * @return Имя шаблона страницы входа ("login").
      */
     @GetMapping("/login")
@@ -44,13 +53,17 @@ public class LoginController {
             @RequestParam(value = "error", required = false) String error,
             @RequestParam(value = "logout", required = false) String logout,
             Model model,
-            HttpSession session) {
+            HttpServletResponse response) {
 
         logger.info("Запрос на страницу входа. qrCode={}, error={}, logout={}", qrCode, error, logout);
 
         if (qrCode != null && !qrCode.isEmpty()) {
-            session.setAttribute("qrCode", qrCode);
-            logger.info("QR-код {} сохранен в сессии из параметра URL.", qrCode);
+            qrCodeResolver.resolve(qrCode).ifPresentOrElse(
+                    instruction -> {
+                        pendingReferralService.remember(response, instruction.getQrCode());
+                        logger.info("QR-код {} сохранен в cookie из параметра URL.", qrCode);
+                    },
+                    () -> logger.warn("QR-код {} не найден, в cookie не сохранен.", qrCode));
         }
 
         // Добавляем параметры для кнопки Telegram Login Widget
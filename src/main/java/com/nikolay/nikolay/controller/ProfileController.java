@@ -1,6 +1,7 @@
 package com.nikolay.nikolay.controller;
 
-import com.nikolay.nikolay.model.User;
+import com.nikolay.nikolay.dto.UserSummary;
+import com.nikolay.nikolay.security.CurrentUser;
 import com.nikolay.nikolay.service.UserService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -15,7 +16,6 @@ import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import jakarta.servlet.http.HttpSession;
-import java.util.Optional;
 
 /**
  * Контроллер для управления профилем пользователя, включая
@@ -47,22 +47,20 @@ public class ProfileController {
     /**
      * Отображает страницу профиля пользователя.
      *
+     * @param user текущий пользователь
      * @param model модель MVC для передачи данных в представление
      * @return имя шаблона профиля или редирект на страницу логина при ошибке
      */
     @GetMapping("/profile")
     @PreAuthorize("isAuthenticated()")
-    public String showProfilePage(Model model) {
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        String userPhone = authentication.getName();
-
-        Optional<User> userOpt = userService.findByPhone(userPhone);
-        if (userOpt.isEmpty()) {
-            logger.error("Не найден профиль для аутентифицированного пользователя: {}", userPhone);
+    public String showProfilePage(@CurrentUser UserSummary user, Model model) {
+        if (user == null) {
+            logger.error("Не найден профиль для аутентифицированного пользователя: {}",
+                    SecurityContextHolder.getContext().getAuthentication().getName());
             return "redirect:/login?error=profile_not_found";
         }
 
-        model.addAttribute("user", userOpt.get());
+        model.addAttribute("user", user);
         model.addAttribute("telegramBotUsername", telegramBotUsername);
         model.addAttribute("telegramRedirectUri", telegramRedirectUri);
 
@@ -123,20 +121,17 @@ public class ProfileController {
      * <p>Устанавливает поля telegramId и telegramUsername в null
      * и сохраняет изменения в базе данных.</p>
      *
+     * @param user текущий пользователь
      * @param redirectAttributes объект для передачи flash-сообщений при редиректе
      * @return редирект на страницу профиля
      */
     @GetMapping("/profile/unlink-telegram")
     @PreAuthorize("isAuthenticated()")
-    public String unlinkTelegram(RedirectAttributes redirectAttributes) {
-        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
-        String phone = auth.getName();
-        Optional<User> userOpt = userService.findByPhone(phone);
-        if (userOpt.isEmpty()) {
+    public String unlinkTelegram(@CurrentUser UserSummary user, RedirectAttributes redirectAttributes) {
+        if (user == null) {
             redirectAttributes.addFlashAttribute("error", "Профиль не найден");
             return "redirect:/profile";
         }
-        User user = userOpt.get();
 
         boolean ok = userService.updateTelegramInfo(user.getId(), null, null);
         if (ok) {
@@ -1,20 +1,31 @@
 package com.nikolay.nikolay.controller;
 
+import com.nikolay.nikolay.dto.InstructionSummary;
 import com.nikolay.nikolay.enums.Role;
-import com.nikolay.nikolay.model.Instruction;
 import com.nikolay.nikolay.model.User;
-import com.nikolay.nikolay.service.InstructionService;
+import com.nikolay.nikolay.security.PasswordHashingRejectedException;
+import com.nikolay.nikolay.service.CustomUserDetailsService;
 import com.nikolay.nikolay.service.NovofonVerificationService;
+import com.nikolay.nikolay.service.PendingReferralService;
+import com.nikolay.nikolay.service.QrCodeResolver;
 import com.nikolay.nikolay.service.UserService;
+import com.nikolay.nikolay.service.VerificationCallDispatcher;
+import com.nikolay.nikolay.service.VerificationRateLimitException;
+import com.nikolay.nikolay.service.VerificationRateLimiter;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpSession;
 import jakarta.validation.Valid;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -24,9 +35,14 @@ import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ModelAttribute;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.SessionAttribute;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Контроллер для обработки регистрации по номеру телефона и верификации.
@@ -39,46 +55,66 @@ public class RegistrationController {
     private final NovofonVerificationService novofonVerificationService;
     private final UserService userService;
     private final PasswordEncoder passwordEncoder;
-    private final InstructionService instructionService;
-    private final UserDetailsService userDetailsService;
+    private final QrCodeResolver qrCodeResolver;
+    private final CustomUserDetailsService userDetailsService;
+    private final PendingReferralService pendingReferralService;
+    private final VerificationCallDispatcher verificationCallDispatcher;
+    private final VerificationRateLimiter verificationRateLimiter;
 
     public RegistrationController(
             NovofonVerificationService novofonVerificationService,
             UserService userService,
             PasswordEncoder passwordEncoder,
-            InstructionService instructionService,
-            UserDetailsService userDetailsService) {
+            QrCodeResolver qrCodeResolver,
+            CustomUserDetailsService userDetailsService,
+            PendingReferralService pendingReferralService,
+            VerificationCallDispatcher verificationCallDispatcher,
+            VerificationRateLimiter verificationRateLimiter) {
         this.novofonVerificationService = novofonVerificationService;
         this.userService = userService;
         this.passwordEncoder = passwordEncoder;
-        this.instructionService = instructionService;
+        this.qrCodeResolver = qrCodeResolver;
         this.userDetailsService = userDetailsService;
+        this.pendingReferralService = pendingReferralService;
+        this.verificationCallDispatcher = verificationCallDispatcher;
+        this.verificationRateLimiter = verificationRateLimiter;
     }
 
     /**
      * Отображает форму регистрации.
+     * QR-код запоминается в подписанной cookie, поэтому просмотр формы не создает HTTP-сессию.
      */
     @GetMapping("/register")
     public String showRegistrationForm(
             @RequestParam(value = "ref", required = false) String referralLink,
             Model model,
-            HttpSession session) {
+            HttpServletRequest request,
+            HttpServletResponse response) {
 
         logger.info("Запрос на страницу регистрации с ref={}", referralLink);
 
+        Optional<InstructionSummary> instructionOpt;
         if (referralLink != null && !referralLink.isEmpty()) {
-            session.setAttribute("qrCodeForRegistration", referralLink);
-            logger.info("QR-код {} сохранен в сессии для регистрации.", referralLink);
-
-            // Получаем название инструкции для отображения
-            Optional<Instruction> instructionOpt = instructionService.findByQrCode(referralLink);
-            instructionOpt.ifPresent(instruction -> model.addAttribute("instructionTitle", instruction.getTitle()));
+            // Запоминаем только существующий код, неизвестные коды (в т.ч. перебор ботами) игнорируем
+            instructionOpt = qrCodeResolver.resolve(referralLink);
+            if (instructionOpt.isPresent()) {
+                pendingReferralService.remember(response, instructionOpt.get().getQrCode());
+                logger.info("QR-код {} сохранен в cookie для регистрации.", referralLink);
+            } else {
+                logger.warn("QR-код {} не найден, в cookie не сохранен.", referralLink);
+            }
+        } else {
+            instructionOpt = resolvePendingReferral(request);
         }
 
         if (!model.containsAttribute("user")) {
             model.addAttribute("user", new User());
         }
-        model.addAttribute("qrCode", session.getAttribute("qrCodeForRegistration"));
+        instructionOpt.ifPresent(instruction -> {
+            model.addAttribute("qrCode", instruction.getQrCode());
+            // Название инструкции для отображения
+            model.addAttribute("instructionTitle", instruction.getTitle());
+        });
 
         return "register";
     }
@@ -92,7 +128,9 @@ public class RegistrationController {
             @Valid @ModelAttribute("user") User user,
             BindingResult bindingResult,
             Model model,
-            HttpSession session) {
+            HttpSession session,
+            HttpServletRequest request,
+            HttpServletResponse response) {
 
         // Нормализуем телефон
         String normalizedPhone = userService.normalizePhoneNumber(user.getPhone());
@@ -101,7 +139,7 @@ public class RegistrationController {
         // Проверяем, что нормализованный номер не null
         if (normalizedPhone == null) {
             bindingResult.addError(new FieldError("user", "phone", "Некорректный формат номера телефона."));
-            populateModelForErrors(model, user, session);
+            populateModelForErrors(model, user, request);
             return "register";
         }
 
@@ -109,42 +147,104 @@ public class RegistrationController {
         Optional<User> existingUserOpt = userService.findByPhone(normalizedPhone);
         boolean isExistingUser = existingUserOpt.isPresent();
 
+        // Проверяем ошибки валидации для нового пользователя
+        if (!isExistingUser && bindingResult.hasErrors()) {
+            logger.warn("Ошибки валидации при отправке кода: {}", bindingResult.getAllErrors());
+            populateModelForErrors(model, user, request);
+            return "register";
+        }
+
+        // Каждый звонок платный: лимит на номер и на IP-адрес проверяется до того, как звонок поставлен в очередь,
+        // и до хеширования пароля, чтобы поток запросов сверх лимита не нагружал пул BCrypt.
+        // getRemoteAddr() — адрес соединения; X-Forwarded-For учитывается только от доверенных прокси
+        try {
+            verificationRateLimiter.acquire(normalizedPhone, request.getRemoteAddr());
+        } catch (VerificationRateLimitException e) {
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+            model.addAttribute("errorMessage", e.getMessage());
+            populateModelForErrors(model, user, request);
+            return "register";
+        }
+
+        // Сессия хранится в БД, поэтому пароль в открытом виде в нее не попадает:
+        // пароль существующего пользователя проверяется сразу, для нового сохраняется только хеш
+        String passwordHash = null;
+        try {
+            if (isExistingUser) {
+                String enteredPassword = user.getPassword();
+                if (enteredPassword != null && !enteredPassword.isEmpty()
+                        && !passwordEncoder.matches(enteredPassword, existingUserOpt.get().getPassword())) {
+                    logger.warn("Неверный пароль для существующего пользователя {}", normalizedPhone);
+                    bindingResult.addError(new FieldError("user", "password", "Неверный пароль."));
+                    populateModelForErrors(model, user, request);
+                    return "register";
+                }
+            } else {
+                passwordHash = passwordEncoder.encode(user.getPassword());
+            }
+        } catch (PasswordHashingRejectedException e) {
+            logger.warn("Отправка кода для {} отклонена: пул хеширования паролей перегружен", normalizedPhone);
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()));
+            model.addAttribute("errorMessage", "Сервер перегружен. Повторите попытку через несколько секунд.");
+            populateModelForErrors(model, user, request);
+            return "register";
+        }
+
         if (isExistingUser) {
             logger.info("Обнаружен существующий пользователь с телефоном {}. Режим добавления инструкции.", normalizedPhone);
             session.setAttribute("existingUserMode", true);
             session.setAttribute("existingUserId", existingUserOpt.get().getId());
+            session.removeAttribute("registrationPassword");
         } else {
-            // Проверяем ошибки валидации для нового пользователя
-            if (bindingResult.hasErrors()) {
-                logger.warn("Ошибки валидации при отправке кода: {}", bindingResult.getAllErrors());
-                populateModelForErrors(model, user, session);
-                return "register";
-            }
             session.setAttribute("existingUserMode", false);
+            session.setAttribute("registrationPassword", passwordHash);
         }
 
         // Сохраняем данные в сессии
         session.setAttribute("registrationPhone", normalizedPhone);
-        session.setAttribute("registrationPassword", user.getPassword());
 
-        // Отправляем код верификации через Novofon
+        // Ставим звонок с кодом в очередь; страница ввода кода открывается сразу и опрашивает состояние звонка
         try {
-            novofonVerificationService.sendVerificationCode(normalizedPhone);
-            logger.info("Отправлен код верификации на номер: {}", normalizedPhone);
+            verificationCallDispatcher.dispatch(normalizedPhone);
+            logger.info("Звонок с кодом верификации на номер {} поставлен в очередь", normalizedPhone);
 
             model.addAttribute("phone", normalizedPhone);
             model.addAttribute("user", user);
             model.addAttribute("existingUser", isExistingUser);
 
             return "verify_code";
-        } catch (Exception e) {
-            logger.error("Ошибка при отправке кода верификации: {}", e.getMessage());
+        } catch (RejectedExecutionException e) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader(HttpHeaders.RETRY_AFTER, "5");
             model.addAttribute("errorMessage", "Не удалось отправить код верификации. Попробуйте позже.");
-            populateModelForErrors(model, user, session);
+            populateModelForErrors(model, user, request);
             return "register";
         }
     }
 
+    /**
+     * Состояние звонка с кодом для опроса со страницы ввода кода.
+     * Телефон берется из сессии регистрации, поэтому узнать состояние чужого звонка нельзя.
+     */
+    @GetMapping("/register/call-status")
+    @ResponseBody
+    public ResponseEntity<Map<String, Object>> callStatus(
+            @SessionAttribute(value = "registrationPhone", required = false) String phone) {
+        Optional<VerificationCallDispatcher.CallStatus> status = verificationCallDispatcher.getStatus(phone);
+        if (status.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<String, Object> body = new HashMap<>();
+        body.put("state", status.get().getState());
+        body.put("attempt", status.get().getAttempt());
+        body.put("finished", status.get().isFinished());
+        return ResponseEntity.ok()
+                .cacheControl(CacheControl.noStore())
+                .body(body);
+    }
+
     /**
      * Проверяет код верификации и завершает регистрацию нового пользователя
      * или обновляет доступы существующего.
@@ -153,12 +253,14 @@ public class RegistrationController {
     public String verifyAndRegister(
             @RequestParam String code,
             HttpSession session,
+            HttpServletRequest request,
+            HttpServletResponse response,
             Model model,
             RedirectAttributes redirectAttributes) {
 
         String phone = (String) session.getAttribute("registrationPhone");
-        String rawPassword = (String) session.getAttribute("registrationPassword");
-        String qrCode = (String) session.getAttribute("qrCodeForRegistration");
+        String passwordHash = (String) session.getAttribute("registrationPassword");
+        String qrCode = pendingReferralService.read(request).orElse(null);
         Boolean isExistingUser = (Boolean) session.getAttribute("existingUserMode");
         Long existingUserId = (Long) session.getAttribute("existingUserId");
 
@@ -181,9 +283,7 @@ public class RegistrationController {
             return "verify_code";
         }
 
-        // Код верификации верный, очищаем его
-        novofonVerificationService.clearCode(phone);
-        logger.info("Код для {} успешно верифицирован и очищен.", phone);
+        logger.info("Код для {} успешно верифицирован.", phone);
 
         try {
             // Обрабатываем в зависимости от режима (существующий/новый пользователь)
@@ -203,36 +303,28 @@ public class RegistrationController {
                     return "redirect:/register";
                 }
 
+                // Пароль существующего пользователя уже проверен при отправке кода
                 User existingUser = existingUserOpt.get();
 
-                // Проверяем пароль, если он был введен
-                if (rawPassword != null && !rawPassword.isEmpty() && !passwordEncoder.matches(rawPassword, existingUser.getPassword())) {
-                    logger.warn("Неверный пароль для существующего пользователя {}", phone);
-                    model.addAttribute("errorMessage", "Неверный пароль.");
-                    model.addAttribute("phone", phone);
-                    model.addAttribute("existingUser", true);
-                    User tempUser = new User();
-                    tempUser.setPhone(phone);
-                    model.addAttribute("user", tempUser);
-                    return "verify_code";
-                }
-
-                // Добавляем новый QR-код к существующему пользователю
+                // Выдаем существующему пользователю доступ по новому QR-коду
                 if (qrCode != null && !qrCode.isEmpty()) {
-                    userService.handleReferralLink(existingUser, qrCode);
-                    existingUser = userService.registerUser(existingUser);
+                    userService.handleReferralLink(existingUser.getId(), qrCode);
                     logger.info("Пользователю {} добавлен доступ к коду {}", phone, qrCode);
                 }
 
+                // Код верификации использован, очищаем его
+                novofonVerificationService.clearCode(phone);
+
                 // Аутентифицируем пользователя
                 authenticateUser(existingUser.getPhone());
 
-                // Очищаем данные сессии
+                // Очищаем данные сессии и cookie с QR-кодом
                 clearSessionData(session);
+                pendingReferralService.clear(response);
 
                 // Если есть QR-код, перенаправляем на соответствующую инструкцию
                 if (qrCode != null && !qrCode.isEmpty()) {
-                    Optional<Instruction> instructionOpt = instructionService.findByQrCode(qrCode);
+                    Optional<InstructionSummary> instructionOpt = qrCodeResolver.resolve(qrCode);
                     if (instructionOpt.isPresent()) {
                         redirectAttributes.addFlashAttribute("success",
                                 "Доступ открыт! Инструкция: " + instructionOpt.get().getTitle());
@@ -247,7 +339,7 @@ public class RegistrationController {
                 // Регистрация нового пользователя
                 User newUser = new User();
                 newUser.setPhone(phone);
-                newUser.setPassword(rawPassword); // Хеширование происходит в userService.registerUser
+                newUser.setPassword(passwordHash); // Хеш вычислен при отправке кода, registerUser повторно не хеширует
                 newUser.setPhoneVerified(true);
                 newUser.setRole(Role.USER);
                 newUser.setReferralLink(qrCode != null ? qrCode : "");
@@ -255,15 +347,24 @@ public class RegistrationController {
                 User savedUser = userService.registerUser(newUser);
                 logger.info("Зарегистрирован новый пользователь: {}", phone);
 
+                // Выдаем доступ к инструкции, по QR-коду которой пришел пользователь
+                if (qrCode != null && !qrCode.isEmpty()) {
+                    userService.handleReferralLink(savedUser.getId(), qrCode);
+                }
+
+                // Код верификации использован, очищаем его
+                novofonVerificationService.clearCode(phone);
+
                 // Аутентифицируем нового пользователя
                 authenticateUser(savedUser.getPhone());
 
-                // Очищаем данные сессии
+                // Очищаем данные сессии и cookie с QR-кодом
                 clearSessionData(session);
+                pendingReferralService.clear(response);
 
                 // Перенаправляем на инструкцию, если есть QR-код
                 if (qrCode != null && !qrCode.isEmpty()) {
-                    Optional<Instruction> instructionOpt = instructionService.findByQrCode(qrCode);
+                    Optional<InstructionSummary> instructionOpt = qrCodeResolver.resolve(qrCode);
                     if (instructionOpt.isPresent()) {
                         redirectAttributes.addFlashAttribute("success",
                                 "Регистрация успешна! Вам открыт доступ к инструкции: " + instructionOpt.get().getTitle());
@@ -291,7 +392,7 @@ public class RegistrationController {
      */
     private void authenticateUser(String phone) {
         try {
-            UserDetails userDetails = userDetailsService.loadUserByUsername(phone);
+            UserDetails userDetails = userDetailsService.loadUserByUsernameCached(phone);
             Authentication authentication = new UsernamePasswordAuthenticationToken(
                     userDetails, null, userDetails.getAuthorities());
             SecurityContextHolder.getContext().setAuthentication(authentication);
@@ -305,14 +406,19 @@ public class RegistrationController {
     /**
      * Заполняет модель данными при ошибках валидации
      */
-    private void populateModelForErrors(Model model, User user, HttpSession session) {
+    private void populateModelForErrors(Model model, User user, HttpServletRequest request) {
         model.addAttribute("user", user);
-        String qrCode = (String) session.getAttribute("qrCodeForRegistration");
-        if (qrCode != null) {
-            model.addAttribute("qrCode", qrCode);
-            instructionService.findByQrCode(qrCode)
-                    .ifPresent(instruction -> model.addAttribute("instructionTitle", instruction.getTitle()));
-        }
+        resolvePendingReferral(request).ifPresent(instruction -> {
+            model.addAttribute("qrCode", instruction.getQrCode());
+            model.addAttribute("instructionTitle", instruction.getTitle());
+        });
+    }
+
+    /**
+     * Возвращает инструкцию по QR-коду из cookie, если код все еще есть в каталоге
+     */
+    private Optional<InstructionSummary> resolvePendingReferral(HttpServletRequest request) {
+        return pendingReferralService.read(request).flatMap(qrCodeResolver::resolve);
     }
 
     /**
@@ -321,7 +427,6 @@ public class RegistrationController {
     private void clearSessionData(HttpSession session) {
         session.removeAttribute("registrationPhone");
         session.removeAttribute("registrationPassword");
-        session.removeAttribute("qrCodeForRegistration");
         session.removeAttribute("existingUserMode");
         session.removeAttribute("existingUserId");
     }
@@ -3,8 +3,11 @@ package com.nikolay.nikolay.controller;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.nikolay.nikolay.dto.TelegramAuthDTO;
 import com.nikolay.nikolay.model.User;
+import com.nikolay.nikolay.service.PendingReferralService;
 import com.nikolay.nikolay.service.TelegramAuthService;
 import com.nikolay.nikolay.service.UserService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpSession;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,13 +26,16 @@ public class TelegramCallbackController {
 
     private final TelegramAuthService telegramAuthService;
     private final UserService userService;
+    private final PendingReferralService pendingReferralService;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     public TelegramCallbackController(
             TelegramAuthService telegramAuthService,
-            UserService userService) {
+            UserService userService,
+            PendingReferralService pendingReferralService) {
         this.telegramAuthService = telegramAuthService;
         this.userService = userService;
+        this.pendingReferralService = pendingReferralService;
     }
 
     /**
@@ -42,6 +48,8 @@ public class TelegramCallbackController {
     public String handleTelegramCallback(
             @RequestParam(required = false) Map<String, String> telegramParams,
             HttpSession session,
+            HttpServletRequest request,
+            HttpServletResponse response,
             RedirectAttributes redirectAttributes) {
 
         // Если запрос без параметров - возвращаем HTML для обработки хеш-фрагмента
@@ -71,7 +79,7 @@ public class TelegramCallbackController {
             if (Boolean.TRUE.equals(isLinkingMode) && phoneForLinking != null) {
                 return handleTelegramLinking(phoneForLinking, authData, redirectAttributes);
             } else {
-                return handleTelegramLogin(authData, session, redirectAttributes);
+                return handleTelegramLogin(authData, request, response, redirectAttributes);
             }
 
         } catch (Exception e) {
@@ -86,7 +94,8 @@ public class TelegramCallbackController {
      */
     @PostMapping("/process-telegram-auth")
     @ResponseBody
-    public ResponseEntity<?> processTelegramAuth(@RequestBody Map<String, Object> authData, HttpSession session) {
+    public ResponseEntity<?> processTelegramAuth(@RequestBody Map<String, Object> authData, HttpSession session,
+                                                 HttpServletRequest request, HttpServletResponse response) {
         try {
             // Создаем DTO из полученных данных
             TelegramAuthDTO telegramAuthDTO = new TelegramAuthDTO();
@@ -120,7 +129,7 @@ public class TelegramCallbackController {
             if (Boolean.TRUE.equals(isLinkingMode) && phoneForLinking != null) {
                 return processTelegramLinking(phoneForLinking, telegramAuthDTO);
             } else {
-                return processTelegramLogin(telegramAuthDTO, session);
+                return processTelegramLogin(telegramAuthDTO, session, request, response);
             }
 
         } catch (Exception e) {
@@ -219,7 +228,8 @@ public class TelegramCallbackController {
      */
     private String handleTelegramLogin(
             TelegramAuthDTO authData,
-            HttpSession session,
+            HttpServletRequest request,
+            HttpServletResponse response,
             RedirectAttributes redirectAttributes) {
 
         Long telegramId = authData.getId();
@@ -240,14 +250,12 @@ public class TelegramCallbackController {
             // Аутентифицируем пользователя
             telegramAuthService.authenticateUser(user);
 
-            // Обрабатываем возможный QR-код из сессии
-            String qrCode = (String) session.getAttribute("qrCode");
+            // Обрабатываем возможный QR-код из cookie
             String redirectUrl = "/";
-
-            if (qrCode != null && !qrCode.isEmpty()) {
-                session.removeAttribute("qrCode");
-                userService.handleReferralLink(user, qrCode);
-                userService.registerUser(user);
+            Optional<String> qrCode = pendingReferralService.read(request);
+            if (qrCode.isPresent()) {
+                pendingReferralService.clear(response);
+                userService.handleReferralLink(user.getId(), qrCode.get());
             }
 
             redirectAttributes.addFlashAttribute("success", "Вы успешно вошли через Telegram!");
@@ -333,7 +341,8 @@ public class TelegramCallbackController {
     /**
      * Обрабатывает вход через Telegram через AJAX
      */
-    private ResponseEntity<?> processTelegramLogin(TelegramAuthDTO authData, HttpSession session) {
+    private ResponseEntity<?> processTelegramLogin(TelegramAuthDTO authData, HttpSession session,
+                                                   HttpServletRequest request, HttpServletResponse response) {
         Long telegramId = authData.getId();
 
         // Ищем пользователя по Telegram ID
@@ -357,14 +366,12 @@ public class TelegramCallbackController {
             session.setAttribute("TELEGRAM_AUTH_SUCCESS", true);
             session.setAttribute("TELEGRAM_AUTH_USER_ID", user.getId());
 
-            // Обрабатываем возможный QR-код из сессии
-            String qrCode = (String) session.getAttribute("qrCode");
+            // Обрабатываем возможный QR-код из cookie
             String redirectUrl = "/";
-
-            if (qrCode != null && !qrCode.isEmpty()) {
-                session.removeAttribute("qrCode");
-                userService.handleReferralLink(user, qrCode);
-                userService.registerUser(user);
+            Optional<String> qrCode = pendingReferralService.read(request);
+            if (qrCode.isPresent()) {
+                pendingReferralService.clear(response);
+                userService.handleReferralLink(user.getId(), qrCode.get());
             }
 
             return ResponseEntity.ok(Map.of(
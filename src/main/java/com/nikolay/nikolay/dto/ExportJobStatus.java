@@ -0,0 +1,81 @@
+package com.nikolay.nikolay.dto;
+
+import com.nikolay.nikolay.enums.ExportJobState;
+
+import java.time.LocalDateTime;
+
+/**
+ * Снимок состояния фоновой выгрузки для страницы прогресса и опроса через JSON.
+ */
+public class ExportJobStatus {
+
+    private final String id;                  // Идентификатор задачи
+    private final ExportJobState state;       // Текущее состояние
+    private final long rowsWritten;           // Записано строк
+    private final long totalRows;             // Оценка общего числа строк на момент запуска
+    private final long fileSize;              // Размер готового файла в байтах (0, пока выгрузка не завершена)
+    private final LocalDateTime createdAt;    // Время постановки в очередь
+    private final LocalDateTime finishedAt;   // Время завершения (null, пока выполняется)
+    private final String error;               // Описание ошибки для FAILED
+
+    public ExportJobStatus(String id, ExportJobState state, long rowsWritten, long totalRows, long fileSize,
+                           LocalDateTime createdAt, LocalDateTime finishedAt, String error) {
+        this.id = id;
+        this.state = state;
+        this.rowsWritten = rowsWritten;
+        this.totalRows = totalRows;
+        this.fileSize = fileSize;
+        this.createdAt = createdAt;
+        this.finishedAt = finishedAt;
+        this.error = error;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public ExportJobState getState() {
+        return state;
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten;
+    }
+
+    public long getTotalRows() {
+        return totalRows;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public LocalDateTime getFinishedAt() {
+        return finishedAt;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Процент выполнения (0–100). Общее число строк — оценка, поэтому значение ограничено сверху.
+     */
+    public int getPercent() {
+        if (state == ExportJobState.DONE) {
+            return 100;
+        }
+        if (totalRows <= 0) {
+            return 0;
+        }
+        return (int) Math.min(99, rowsWritten * 100 / totalRows);
+    }
+
+    public boolean isFinished() {
+        return state == ExportJobState.DONE || state == ExportJobState.FAILED;
+    }
+}
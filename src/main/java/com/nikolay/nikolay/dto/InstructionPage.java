@@ -0,0 +1,57 @@
+package com.nikolay.nikolay.dto;
+
+import com.nikolay.nikolay.model.Instruction;
+
+/**
+ * Неизменяемый снимок инструкции для страницы просмотра /instruction/{id}.
+ * Хранится в кэше каталога InstructionService, поэтому не связан с persistence context.
+ */
+public class InstructionPage {
+    private final Long id;          // ID инструкции
+    private final String title;     // Название инструкции
+    private final String qrCode;    // QR-код инструкции
+    private final String content;   // Содержимое инструкции (HTML)
+    private final byte[] contentGzip; // Готовая страница в gzip (может быть null)
+
+    public InstructionPage(Long id, String title, String qrCode, String content, byte[] contentGzip) {
+        this.id = id;
+        this.title = title;
+        this.qrCode = qrCode;
+        this.content = content;
+        this.contentGzip = contentGzip;
+    }
+
+    /**
+     * Создает снимок из JPA-сущности.
+     * @param instruction Сущность инструкции.
+     * @return Новый объект InstructionPage.
+     */
+    public static InstructionPage from(Instruction instruction) {
+        return new InstructionPage(instruction.getId(), instruction.getTitle(),
+                instruction.getQrCode(), instruction.getContent(), instruction.getContentGzip());
+    }
+
+    // Геттеры
+    public Long getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getQrCode() {
+        return qrCode;
+    }
+
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     * Возвращает предварительно сжатую страницу. Массив общий для всех запросов и не должен изменяться.
+     */
+    public byte[] getContentGzip() {
+        return contentGzip;
+    }
+}
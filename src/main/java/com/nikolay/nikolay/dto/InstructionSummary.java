@@ -0,0 +1,73 @@
+package com.nikolay.nikolay.dto;
+
+import java.time.Instant;
+
+/**
+ * Облегченное представление инструкции для списков (главная страница, админка).
+ * Содержит идентификатор, название, QR-код и версию содержимого, без тяжелого поля content.
+ * Объект неизменяемый: признак доступности задается созданием копии через {@link #withAvailable(boolean)}.
+ */
+public class InstructionSummary {
+    private final Long id;          // ID инструкции
+    private final String title;     // Название инструкции
+    private final String qrCode;    // QR-код инструкции
+    private final String contentHash; // Хеш содержимого (ETag), может быть null для старых записей
+    private final Instant updatedAt;  // Время последнего сохранения, может быть null для старых записей
+    private final boolean available; // Доступна ли инструкция текущему пользователю
+
+    // Конструктор используется в JPQL-проекции (SELECT new ...)
+    public InstructionSummary(Long id, String title, String qrCode, String contentHash, Instant updatedAt) {
+        this(id, title, qrCode, contentHash, updatedAt, false);
+    }
+
+    private InstructionSummary(Long id, String title, String qrCode, String contentHash, Instant updatedAt,
+                               boolean available) {
+        this.id = id;
+        this.title = title;
+        this.qrCode = qrCode;
+        this.contentHash = contentHash;
+        this.updatedAt = updatedAt;
+        this.available = available;
+    }
+
+    /**
+     * Возвращает копию с указанным признаком доступности.
+     * @param available Доступна ли инструкция пользователю.
+     * @return Новый объект InstructionSummary.
+     */
+    public InstructionSummary withAvailable(boolean available) {
+        return new InstructionSummary(id, title, qrCode, contentHash, updatedAt, available);
+    }
+
+    // Геттеры
+    public Long getId() {
+        return id;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getQrCode() {
+        return qrCode;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /**
+     * Возвращает строгий ETag страницы инструкции или null, если версия еще не вычислена.
+     */
+    public String getETag() {
+        return contentHash != null ? "\"" + contentHash + "\"" : null;
+    }
+
+    public boolean isAvailable() {
+        return available;
+    }
+}
@@ -0,0 +1,69 @@
+package com.nikolay.nikolay.dto;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Страница результатов при keyset-пагинации (по возрастанию ID).
+ * Вместо номера страницы используется курсор — ID последней записи предыдущей страницы.
+ * @param <T> Тип элементов страницы.
+ */
+public class KeysetPage<T> {
+    // Размер страницы по умолчанию и его верхняя граница
+    public static final int DEFAULT_SIZE = 50;
+    public static final int MAX_SIZE = 200;
+
+    private final List<T> items;     // Элементы текущей страницы
+    private final Long nextCursor;   // Курсор следующей страницы (null, если страница последняя)
+    private final int size;          // Запрошенный размер страницы
+
+    private KeysetPage(List<T> items, Long nextCursor, int size) {
+        this.items = items;
+        this.nextCursor = nextCursor;
+        this.size = size;
+    }
+
+    /**
+     * Приводит запрошенный размер страницы к допустимому диапазону.
+     * @param size Запрошенный размер (может быть null).
+     * @return Размер от 1 до MAX_SIZE.
+     */
+    public static int clampSize(Integer size) {
+        if (size == null || size <= 0) {
+            return DEFAULT_SIZE;
+        }
+        return Math.min(size, MAX_SIZE);
+    }
+
+    /**
+     * Строит страницу из результата запроса, выбравшего на одну запись больше размера страницы.
+     * @param fetched Результат запроса (до size + 1 записей, упорядочены по ID).
+     * @param size Размер страницы.
+     * @param idExtractor Функция получения ID элемента.
+     * @return Страница с курсором на следующую страницу, если она есть.
+     */
+    public static <T> KeysetPage<T> of(List<T> fetched, int size, Function<T, Long> idExtractor) {
+        if (fetched.size() <= size) {
+            return new KeysetPage<>(List.copyOf(fetched), null, size);
+        }
+        List<T> items = List.copyOf(fetched.subList(0, size));
+        return new KeysetPage<>(items, idExtractor.apply(items.get(size - 1)), size);
+    }
+
+    // Геттеры
+    public List<T> getItems() {
+        return items;
+    }
+
+    public Long getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean isHasNext() {
+        return nextCursor != null;
+    }
+
+    public int getSize() {
+        return size;
+    }
+}
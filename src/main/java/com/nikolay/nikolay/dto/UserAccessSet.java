@@ -0,0 +1,64 @@
+package com.nikolay.nikolay.dto;
+
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * Компактный неизменяемый набор ID инструкций, доступных пользователю.
+ * ID инструкций генерируются автоинкрементом и плотно лежат в начале диапазона,
+ * поэтому набор хранится как BitSet: проверка доступа — это проверка одного бита.
+ */
+public final class UserAccessSet {
+
+    public static final UserAccessSet EMPTY = new UserAccessSet(new BitSet(0), 0);
+
+    private final BitSet bits;
+    private final int size;
+
+    private UserAccessSet(BitSet bits, int size) {
+        this.bits = bits;
+        this.size = size;
+    }
+
+    /**
+     * Строит набор из списка ID инструкций.
+     * ID вне диапазона int не поддерживаются и пропускаются.
+     * @param instructionIds ID доступных инструкций.
+     * @return Новый UserAccessSet.
+     */
+    public static UserAccessSet of(Collection<Long> instructionIds) {
+        if (instructionIds == null || instructionIds.isEmpty()) {
+            return EMPTY;
+        }
+        BitSet bits = new BitSet();
+        for (Long id : instructionIds) {
+            if (id != null && id >= 0 && id <= Integer.MAX_VALUE) {
+                bits.set(id.intValue());
+            }
+        }
+        return new UserAccessSet(bits, bits.cardinality());
+    }
+
+    /**
+     * Проверяет, доступна ли инструкция.
+     * @param instructionId ID инструкции.
+     * @return true, если инструкция входит в набор.
+     */
+    public boolean contains(Long instructionId) {
+        return instructionId != null && instructionId >= 0 && instructionId <= Integer.MAX_VALUE
+                && bits.get(instructionId.intValue());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public String toString() {
+        return "UserAccessSet" + bits;
+    }
+}
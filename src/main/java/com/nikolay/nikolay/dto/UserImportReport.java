@@ -0,0 +1,92 @@
+package com.nikolay.nikolay.dto;
+
+import java.util.List;
+
+/**
+ * Итог массового импорта пользователей из CSV.
+ * Список ошибок ограничен по размеру, полное их число хранится в errorCount.
+ */
+public class UserImportReport {
+
+    private final int totalRows;        // Обработано строк с данными (без заголовка и пустых строк)
+    private final int created;          // Создано новых пользователей
+    private final int existing;         // Пользователей, которые уже были в БД (им только выданы доступы)
+    private final int accessGranted;    // Выдано новых доступов к инструкциям
+    private final int errorCount;       // Строк, пропущенных из-за ошибок
+    private final List<RowError> errors; // Первые ошибки с номерами строк
+    private final long durationMs;      // Длительность импорта
+
+    public UserImportReport(int totalRows, int created, int existing, int accessGranted,
+                            int errorCount, List<RowError> errors, long durationMs) {
+        this.totalRows = totalRows;
+        this.created = created;
+        this.existing = existing;
+        this.accessGranted = accessGranted;
+        this.errorCount = errorCount;
+        this.errors = errors;
+        this.durationMs = durationMs;
+    }
+
+    public int getTotalRows() {
+        return totalRows;
+    }
+
+    public int getCreated() {
+        return created;
+    }
+
+    public int getExisting() {
+        return existing;
+    }
+
+    public int getAccessGranted() {
+        return accessGranted;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    public List<RowError> getErrors() {
+        return errors;
+    }
+
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    /**
+     * Показаны ли в отчете не все ошибки.
+     */
+    public boolean isErrorsTruncated() {
+        return errors.size() < errorCount;
+    }
+
+    /**
+     * Скорость импорта, строк в секунду.
+     */
+    public long getRowsPerSecond() {
+        return durationMs > 0 ? totalRows * 1000L / durationMs : totalRows;
+    }
+
+    /**
+     * Ошибка в конкретной строке файла.
+     */
+    public static class RowError {
+        private final int line;        // Номер строки в файле (с 1)
+        private final String message;  // Описание ошибки
+
+        public RowError(int line, String message) {
+            this.line = line;
+            this.message = message;
+        }
+
+        public int getLine() {
+            return line;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.nikolay.nikolay.dto;
+
+import com.nikolay.nikolay.enums.Role;
+import com.nikolay.nikolay.model.User;
+
+/**
+ * Облегченное представление текущего пользователя для контроллеров и шаблонов.
+ * Загружается проекцией без пароля и прочих полей сущности User.
+ */
+public class UserSummary {
+    private final Long id;
+    private final String phone;
+    private final Role role;
+    private final String telegram;
+    private final Long telegramId;
+
+    /**
+     * Конструктор, используемый в JPQL-проекции (SELECT new ...).
+     */
+    public UserSummary(Long id, String phone, Role role, String telegram, Long telegramId) {
+        this.id = id;
+        this.phone = phone;
+        this.role = role;
+        this.telegram = telegram;
+        this.telegramId = telegramId;
+    }
+
+    /**
+     * Создает представление из уже загруженной сущности.
+     */
+    public static UserSummary from(User user) {
+        return new UserSummary(user.getId(), user.getPhone(), user.getRole(), user.getTelegram(), user.getTelegramId());
+    }
+
+    // Геттеры
+    public Long getId() {
+        return id;
+    }
+
+    public String getPhone() {
+        return phone;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public String getTelegram() {
+        return telegram;
+    }
+
+    public Long getTelegramId() {
+        return telegramId;
+    }
+
+    public boolean isAdmin() {
+        return role == Role.ADMIN;
+    }
+}
@@ -0,0 +1,11 @@
+package com.nikolay.nikolay.enums;
+
+/**
+ * Состояние фоновой выгрузки.
+ */
+public enum ExportJobState {
+    QUEUED,
+    RUNNING,
+    DONE,
+    FAILED
+}
@@ -0,0 +1,11 @@
+package com.nikolay.nikolay.enums;
+
+/**
+ * Состояние звонка с кодом подтверждения.
+ */
+public enum VerificationCallState {
+    QUEUED,   // В очереди (в т.ч. ожидает повтора после временной ошибки)
+    DIALING,  // Выполняется запрос к Novofon
+    SENT,     // Звонок инициирован, код сохранен
+    FAILED    // Звонок не удалось инициировать
+}
@@ -0,0 +1,39 @@
+package com.nikolay.nikolay.model;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Отметка о выполненной однократной миграции данных.
+ * Строка вставляется в той же транзакции, что и сама миграция: первичный ключ по имени не дает
+ * нескольким экземплярам приложения выполнить ее дважды, а откат миграции убирает и отметку.
+ */
+@Entity
+@Table(name = "data_migration")
+public class DataMigration {
+
+    @Id
+    @Column(name = "name", length = 100)
+    private String name; // Имя миграции
+
+    @Column(name = "applied_at", nullable = false)
+    private LocalDateTime appliedAt; // Время выполнения
+
+    // Геттеры и сеттеры
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public LocalDateTime getAppliedAt() {
+        return appliedAt;
+    }
+
+    public void setAppliedAt(LocalDateTime appliedAt) {
+        this.appliedAt = appliedAt;
+    }
+}
@@ -2,6 +2,8 @@ package com.nikolay.nikolay.model;
 
 import jakarta.persistence.*;
 
+import java.time.Instant;
+
 /**
  * Сущность, представляющая инструкцию к медицинскому аппарату.
  */
@@ -26,6 +28,19 @@ public class Instruction {
     @Column(nullable = false)
     private boolean available = false; // Флаг доступности инструкции (true/false). По умолчанию false.
 
+    @Lob
+    @Column(name = "content_gzip", columnDefinition = "LONGBLOB")
+    private byte[] contentGzip; // Отрендеренная страница инструкции, сжатая gzip при сохранении
+
+    @Column(name = "content_hash", length = 64)
+    private String contentHash; // SHA-256 от версии рендерера, названия и содержимого, используется как ETag страницы
+
+    @Column(name = "render_version", length = 80)
+    private String renderVersion; // Версия рендерера, которой подготовлена content_gzip
+
+    @Column(name = "updated_at")
+    private Instant updatedAt; // Время последнего сохранения (Last-Modified страницы)
+
     // Поле href используется только для отображения в UI и вычисляется динамически.
     @Transient
     private String href;
@@ -71,6 +86,38 @@ public class Instruction {
         this.available = available;
     }
 
+    public byte[] getContentGzip() {
+        return contentGzip;
+    }
+
+    public void setContentGzip(byte[] contentGzip) {
+        this.contentGzip = contentGzip;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+
+    public String getRenderVersion() {
+        return renderVersion;
+    }
+
+    public void setRenderVersion(String renderVersion) {
+        this.renderVersion = renderVersion;
+    }
+
+    public Instant getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Instant updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
     public String getHref() {
         return href;
     }
@@ -9,7 +9,12 @@ import lombok.Data;
 import lombok.NoArgsConstructor;
 
 @Entity
-@Table(name = "users")
+@Table(name = "users", indexes = {
+        // Keyset-пагинация в админке с фильтром по роли
+        @Index(name = "idx_users_role_id", columnList = "role, id"),
+        // Поиск по Telegram ID и фильтр «есть Telegram»
+        @Index(name = "idx_users_telegram_id", columnList = "telegram_id")
+})
 public class User {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -30,7 +35,7 @@ public class User {
     private String telegram;
 
     @Column(nullable = false)
-    private String referralLink; // Ссылка, по которой перешел пользователь
+    private String referralLink; // Ссылка, по которой перешел пользователь при регистрации (доступы хранятся в user_instruction_access)
 
     @Enumerated(EnumType.STRING)
     @Column(nullable = false)
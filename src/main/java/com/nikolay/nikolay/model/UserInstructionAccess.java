@@ -0,0 +1,85 @@
+package com.nikolay.nikolay.model;
+
+import jakarta.persistence.*;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.Objects;
+
+/**
+ * Право доступа пользователя к инструкции.
+ * Заменяет хранение QR-кодов строкой через запятую в User.referralLink.
+ * Первичный ключ (user_id, instruction_id) исключает повторную выдачу и обслуживает выборку по пользователю.
+ */
+@Entity
+@Table(name = "user_instruction_access",
+        indexes = @Index(name = "idx_uia_instruction", columnList = "instruction_id"))
+@IdClass(UserInstructionAccess.Key.class)
+public class UserInstructionAccess {
+
+    @Id
+    @Column(name = "user_id")
+    private Long userId; // ID пользователя
+
+    @Id
+    @Column(name = "instruction_id")
+    private Long instructionId; // ID инструкции
+
+    @Column(name = "granted_at", nullable = false)
+    private LocalDateTime grantedAt; // Время выдачи доступа
+
+    // Геттеры и сеттеры
+    public Long getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Long userId) {
+        this.userId = userId;
+    }
+
+    public Long getInstructionId() {
+        return instructionId;
+    }
+
+    public void setInstructionId(Long instructionId) {
+        this.instructionId = instructionId;
+    }
+
+    public LocalDateTime getGrantedAt() {
+        return grantedAt;
+    }
+
+    public void setGrantedAt(LocalDateTime grantedAt) {
+        this.grantedAt = grantedAt;
+    }
+
+    /**
+     * Составной ключ (user_id, instruction_id).
+     */
+    public static class Key implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private Long userId;
+        private Long instructionId;
+
+        public Key() {
+        }
+
+        public Key(Long userId, Long instructionId) {
+            this.userId = userId;
+            this.instructionId = instructionId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key key)) return false;
+            return Objects.equals(userId, key.userId) && Objects.equals(instructionId, key.instructionId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(userId, instructionId);
+        }
+    }
+}
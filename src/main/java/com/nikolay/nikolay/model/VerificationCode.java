@@ -0,0 +1,49 @@
+package com.nikolay.nikolay.model;
+
+import jakarta.persistence.*;
+
+/**
+ * Код подтверждения, ожидающий ввода (для app.verification.codes.store=jdbc).
+ * Таблица читается и пишется через JdbcVerificationCodeStore; сущность описывает схему для ddl-auto.
+ * Код хранится только в виде HMAC, индекс по сроку действия нужен для очистки истекших строк.
+ */
+@Entity
+@Table(name = "verification_code",
+        indexes = @Index(name = "idx_verification_code_expires", columnList = "expires_at"))
+public class VerificationCode {
+
+    @Id
+    @Column(name = "phone", length = 20)
+    private String phone; // Нормализованный номер телефона
+
+    @Column(name = "code_hash", nullable = false, length = 32)
+    private byte[] codeHash; // HMAC-SHA256(номер:код)
+
+    @Column(name = "expires_at", nullable = false)
+    private long expiresAt; // Срок действия, миллисекунды с начала эпохи
+
+    // Геттеры и сеттеры
+    public String getPhone() {
+        return phone;
+    }
+
+    public void setPhone(String phone) {
+        this.phone = phone;
+    }
+
+    public byte[] getCodeHash() {
+        return codeHash;
+    }
+
+    public void setCodeHash(byte[] codeHash) {
+        this.codeHash = codeHash;
+    }
+
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+}
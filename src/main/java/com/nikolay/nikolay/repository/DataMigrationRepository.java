@@ -0,0 +1,24 @@
+package com.nikolay.nikolay.repository;
+
+import com.nikolay.nikolay.model.DataMigration;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Репозиторий отметок об однократных миграциях данных (таблица data_migration).
+ */
+@Repository
+public interface DataMigrationRepository extends JpaRepository<DataMigration, String> {
+
+    /**
+     * Захватывает миграцию одной вставкой. Параллельная транзакция с тем же именем ждет на блокировке ключа
+     * и после фиксации первой получает 0.
+     * @return 1, если миграция отмечена этой транзакцией, 0 — если она уже выполнена.
+     */
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO data_migration (name, applied_at) VALUES (:name, NOW())", nativeQuery = true)
+    int markApplied(@Param("name") String name);
+}
@@ -1,9 +1,14 @@
 package com.nikolay.nikolay.repository;
 
+import com.nikolay.nikolay.dto.InstructionSummary;
 import com.nikolay.nikolay.model.Instruction;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -19,4 +24,39 @@ public interface InstructionRepository extends JpaRepository<Instruction, Long>
      * @return Optional с найденной инструкцией, если существует, иначе Optional.empty().
      */
     Optional<Instruction> findByQrCode(String qrCode);
+
+    /**
+     * Получение облегченного списка инструкций (ID, название, QR-код, версия) без загрузки LOB-поля content.
+     * @return Список InstructionSummary, упорядоченный по ID.
+     */
+    @Query("SELECT new com.nikolay.nikolay.dto.InstructionSummary(i.id, i.title, i.qrCode, i.contentHash, i.updatedAt) " +
+            "FROM Instruction i ORDER BY i.id")
+    List<InstructionSummary> findAllSummaries();
+
+    /**
+     * Keyset-пагинация облегченного списка инструкций по ID.
+     * @param afterId ID последней инструкции предыдущей страницы (0 для первой страницы).
+     * @param pageable Ограничение размера выборки.
+     */
+    @Query("SELECT new com.nikolay.nikolay.dto.InstructionSummary(i.id, i.title, i.qrCode, i.contentHash, i.updatedAt) " +
+            "FROM Instruction i WHERE i.id > :afterId ORDER BY i.id")
+    List<InstructionSummary> findSummariesAfter(@Param("afterId") long afterId, Pageable pageable);
+
+    /**
+     * ID инструкций, для которых еще не вычислен хеш содержимого или не подготовлена сжатая страница
+     * (записи, сохраненные до появления этих полей), либо страница подготовлена другой версией рендерера.
+     * @param renderVersion Текущая версия рендерера.
+     */
+    @Query("SELECT i.id FROM Instruction i WHERE i.contentHash IS NULL OR i.contentGzip IS NULL " +
+            "OR i.renderVersion IS NULL OR i.renderVersion <> :renderVersion ORDER BY i.id")
+    List<Long> findIdsToRender(@Param("renderVersion") String renderVersion);
+
+    /**
+     * Версия набора инструкций: количество строк и контрольная сумма ID, QR-кодов, хешей содержимого и времени изменения.
+     * Меняется при любом создании, удалении или изменении инструкции, в том числе на другом экземпляре приложения.
+     * Читает только короткие столбцы, без LOB.
+     */
+    @Query(value = "SELECT CONCAT(COUNT(*), ':', COALESCE(SUM(CRC32(CONCAT_WS('|', id, qr_code, content_hash, updated_at))), 0)) " +
+            "FROM instructions", nativeQuery = true)
+    String findCatalogVersion();
 }
\ No newline at end of file
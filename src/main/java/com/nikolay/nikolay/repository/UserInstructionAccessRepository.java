@@ -0,0 +1,47 @@
+package com.nikolay.nikolay.repository;
+
+import com.nikolay.nikolay.model.UserInstructionAccess;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+/**
+ * Репозиторий прав доступа пользователей к инструкциям (таблица user_instruction_access).
+ */
+@Repository
+public interface UserInstructionAccessRepository extends JpaRepository<UserInstructionAccess, UserInstructionAccess.Key> {
+
+    /**
+     * Выдает доступ одной вставкой. Повторная выдача игнорируется первичным ключом.
+     * @return 1, если доступ добавлен, 0 — если он уже был.
+     */
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO user_instruction_access (user_id, instruction_id, granted_at) " +
+            "VALUES (:userId, :instructionId, NOW())", nativeQuery = true)
+    int grant(@Param("userId") Long userId, @Param("instructionId") Long instructionId);
+
+    boolean existsByUserIdAndInstructionId(Long userId, Long instructionId);
+
+    @Query("SELECT a.instructionId FROM UserInstructionAccess a WHERE a.userId = :userId")
+    List<Long> findInstructionIdsByUserId(@Param("userId") Long userId);
+
+    @Modifying
+    @Query("DELETE FROM UserInstructionAccess a WHERE a.instructionId = :instructionId")
+    int deleteByInstructionId(@Param("instructionId") Long instructionId);
+
+    /**
+     * Однократный перенос доступов из устаревшего поля users.referral_link (QR-коды через запятую).
+     * @return Количество добавленных записей.
+     */
+    @Modifying
+    @Query(value = "INSERT IGNORE INTO user_instruction_access (user_id, instruction_id, granted_at) " +
+            "SELECT u.id, i.id, NOW() FROM users u " +
+            "JOIN instructions i ON i.qr_code IS NOT NULL AND i.qr_code <> '' " +
+            "AND FIND_IN_SET(i.qr_code, REPLACE(u.referral_link, ' ', '')) > 0 " +
+            "WHERE u.referral_link IS NOT NULL AND u.referral_link <> ''", nativeQuery = true)
+    int migrateFromReferralLinks();
+}
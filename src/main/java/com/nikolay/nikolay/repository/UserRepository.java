@@ -1,13 +1,21 @@
 package com.nikolay.nikolay.repository;
 
+import com.nikolay.nikolay.dto.UserSummary;
+import com.nikolay.nikolay.enums.Role;
 import com.nikolay.nikolay.model.User;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
@@ -18,13 +26,69 @@ public interface UserRepository extends JpaRepository<User, Long> {
 
     Optional<User> findByTelegramId(Long telegramId);
 
-    // Добавляем методы для прямого обновления полей Telegram
-    @Modifying
+    /**
+     * Потоковое чтение всех пользователей по возрастанию ID для выгрузки.
+     * Fetch size Integer.MIN_VALUE включает у драйвера MySQL построчную передачу результата вместо загрузки всей выборки;
+     * сущности загружаются только для чтения. Поток нужно закрыть внутри транзакции.
+     */
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + Integer.MIN_VALUE),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true"),
+            @QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "false")
+    })
+    @Query("SELECT u FROM User u ORDER BY u.id")
+    Stream<User> streamAllOrderById();
+
+    /**
+     * Телефон пользователя в том виде, в каком он сохранен в БД.
+     * Контекст сохранения перед запросом не сбрасывается, поэтому несохраненная смена телефона у сущности не видна.
+     */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FLUSH_MODE, value = "COMMIT"))
+    @Query("SELECT u.phone FROM User u WHERE u.id = :id")
+    Optional<String> findStoredPhoneById(@Param("id") Long id);
+
+    /**
+     * Облегченная загрузка пользователя по нормализованному телефону (без пароля и прочих полей).
+     */
+    @Query("SELECT new com.nikolay.nikolay.dto.UserSummary(u.id, u.phone, u.role, u.telegram, u.telegramId) " +
+            "FROM User u WHERE u.phone = :phone")
+    Optional<UserSummary> findSummaryByPhone(@Param("phone") String phone);
+
+    /**
+     * Keyset-пагинация пользователей по ID с необязательными фильтрами.
+     * Размер выборки задается через pageable (смещение всегда 0, позиция задается курсором afterId).
+     * @param afterId ID последнего пользователя предыдущей страницы (0 для первой страницы).
+     * @param phonePrefix Префикс нормализованного телефона или null.
+     * @param hasTelegram Фильтр по наличию привязанного Telegram или null.
+     * @param role Фильтр по роли или null.
+     */
+    @Query("SELECT u FROM User u WHERE u.id > :afterId " +
+            "AND (:phonePrefix IS NULL OR u.phone LIKE CONCAT(:phonePrefix, '%')) " +
+            "AND (:hasTelegram IS NULL OR (:hasTelegram = TRUE AND u.telegramId IS NOT NULL) " +
+            "OR (:hasTelegram = FALSE AND u.telegramId IS NULL)) " +
+            "AND (:role IS NULL OR u.role = :role) " +
+            "ORDER BY u.id")
+    List<User> findPageAfter(@Param("afterId") long afterId,
+                             @Param("phonePrefix") String phonePrefix,
+                             @Param("hasTelegram") Boolean hasTelegram,
+                             @Param("role") Role role,
+                             Pageable pageable);
+
+    // Добавляем методы для прямого обновления полей Telegram.
+    // Ожидающие изменения сбрасываются до UPDATE, а контекст очищается после, чтобы не читать устаревшие сущности
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
     @Query("UPDATE User u SET u.telegramId = :telegramId, u.telegram = :telegram WHERE u.id = :userId")
     int updateTelegramFields(@Param("userId") Long userId,
                              @Param("telegramId") Long telegramId,
                              @Param("telegram") String telegram);
 
+    /**
+     * Обновляет хеш пароля пользователя (пересчет хеша после изменения сложности BCrypt).
+     */
+    @Modifying
+    @Query("UPDATE User u SET u.password = :password WHERE u.phone = :phone")
+    int updatePasswordByPhone(@Param("phone") String phone, @Param("password") String password);
+
     @Modifying
     @Query(value = "UPDATE users SET telegram_id = :telegramId, telegram = :telegram WHERE phone = :phone",
             nativeQuery = true)
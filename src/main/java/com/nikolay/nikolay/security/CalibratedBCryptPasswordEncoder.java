@@ -0,0 +1,113 @@
+package com.nikolay.nikolay.security;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * BCrypt-кодировщик с подобранной под текущий хост сложностью (cost).
+ *
+ * Сложность определяется при старте замером хеширования (или задается явно); upgradeEncoding возвращает true
+ * только для хешей слабее текущей сложности. Хеши сильнее текущей не пересчитываются: замер на соседнем узле
+ * или после перезапуска может дать сложность на единицу меньше, и пересчет в обе стороны гонял бы хеши
+ * туда и обратно, добавляя ко входу второе хеширование и UPDATE.
+ * Время encode и matches публикуется в метриках password.hash.encode / password.hash.matches.
+ */
+public class CalibratedBCryptPasswordEncoder implements PasswordEncoder {
+
+    private static final Logger logger = LoggerFactory.getLogger(CalibratedBCryptPasswordEncoder.class);
+
+    // Хеш BCrypt: $2a$NN$ + 53 символа соли и хеша
+    private static final Pattern BCRYPT_HASH = Pattern.compile("\\$2[aby]?\\$\\d\\d\\$[./A-Za-z0-9]{53}");
+
+    // Сложность, от которой ведется расчет при калибровке
+    private static final int BASELINE_STRENGTH = 10;
+    private static final int CALIBRATION_ROUNDS = 3;
+
+    private final int strength;
+    private final BCryptPasswordEncoder delegate;
+    private final Timer encodeTimer;
+    private final Timer matchesTimer;
+
+    public CalibratedBCryptPasswordEncoder(int strength, MeterRegistry meterRegistry) {
+        this.strength = strength;
+        this.delegate = new BCryptPasswordEncoder(strength);
+        this.encodeTimer = Timer.builder("password.hash.encode")
+                .description("Время хеширования пароля")
+                .tag("algorithm", "bcrypt")
+                .register(meterRegistry);
+        this.matchesTimer = Timer.builder("password.hash.matches")
+                .description("Время проверки пароля")
+                .tag("algorithm", "bcrypt")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Подбирает сложность BCrypt так, чтобы хеширование занимало около targetMillis на этом хосте.
+     * Замеряется медиана нескольких хеширований со сложностью 10; каждая следующая ступень удваивает время.
+     * @param targetMillis Целевое время одного хеширования.
+     * @param minStrength Минимально допустимая сложность.
+     * @param maxStrength Максимально допустимая сложность.
+     * @return Сложность в диапазоне [minStrength, maxStrength].
+     */
+    public static int calibrate(long targetMillis, int minStrength, int maxStrength) {
+        BCryptPasswordEncoder probe = new BCryptPasswordEncoder(BASELINE_STRENGTH);
+        probe.encode("calibration-warmup");
+
+        long[] samples = new long[CALIBRATION_ROUNDS];
+        for (int i = 0; i < CALIBRATION_ROUNDS; i++) {
+            long start = System.nanoTime();
+            probe.encode("calibration-" + i);
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        double baselineMillis = Math.max(samples[CALIBRATION_ROUNDS / 2] / 1_000_000.0, 0.01);
+
+        int strength = BASELINE_STRENGTH + (int) Math.round(Math.log(targetMillis / baselineMillis) / Math.log(2));
+        strength = Math.max(minStrength, Math.min(maxStrength, strength));
+        logger.info("Калибровка BCrypt: cost {} занимает {} мс, цель {} мс, выбрана сложность {}",
+                BASELINE_STRENGTH, String.format("%.1f", baselineMillis), targetMillis, strength);
+        return strength;
+    }
+
+    /**
+     * Проверяет, является ли строка хешем BCrypt (с префиксом {bcrypt} или без него).
+     */
+    public static boolean isBcryptHash(String value) {
+        if (value == null) {
+            return false;
+        }
+        String hash = value.startsWith("{bcrypt}") ? value.substring("{bcrypt}".length()) : value;
+        return BCRYPT_HASH.matcher(hash).matches();
+    }
+
+    public int getStrength() {
+        return strength;
+    }
+
+    @Override
+    public String encode(CharSequence rawPassword) {
+        return encodeTimer.record(() -> delegate.encode(rawPassword));
+    }
+
+    @Override
+    public boolean matches(CharSequence rawPassword, String encodedPassword) {
+        return matchesTimer.record(() -> delegate.matches(rawPassword, encodedPassword));
+    }
+
+    @Override
+    public boolean upgradeEncoding(String encodedPassword) {
+        if (encodedPassword == null || !BCRYPT_HASH.matcher(encodedPassword).matches()) {
+            return false;
+        }
+        int storedStrength = Integer.parseInt(encodedPassword.substring(encodedPassword.indexOf('$', 1) + 1,
+                encodedPassword.indexOf('$', 1) + 3));
+        return storedStrength < strength;
+    }
+}
@@ -0,0 +1,17 @@
+package com.nikolay.nikolay.security;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Помечает параметр метода контроллера типа UserSummary, в который подставляется текущий пользователь.
+ * Для анонимного запроса (или если пользователь не найден в БД) подставляется null.
+ */
+@Target(ElementType.PARAMETER)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface CurrentUser {
+}
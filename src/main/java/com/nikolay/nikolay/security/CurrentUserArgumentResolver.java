@@ -0,0 +1,71 @@
+package com.nikolay.nikolay.security;
+
+import com.nikolay.nikolay.dto.UserSummary;
+import com.nikolay.nikolay.service.UserService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.MethodParameter;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.support.WebDataBinderFactory;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.method.support.HandlerMethodArgumentResolver;
+import org.springframework.web.method.support.ModelAndViewContainer;
+
+import java.util.Optional;
+
+/**
+ * Подставляет текущего пользователя в параметры контроллеров, помеченные @CurrentUser.
+ * Пользователь загружается одним запросом-проекцией и запоминается в атрибуте запроса,
+ * поэтому в пределах одного HTTP-запроса в БД обращаемся не больше одного раза.
+ */
+@Component
+public class CurrentUserArgumentResolver implements HandlerMethodArgumentResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(CurrentUserArgumentResolver.class);
+
+    // Атрибут запроса с результатом загрузки (Optional, чтобы запоминать и отсутствие пользователя)
+    private static final String CURRENT_USER_ATTRIBUTE = CurrentUserArgumentResolver.class.getName() + ".CURRENT_USER";
+
+    private final UserService userService;
+
+    public CurrentUserArgumentResolver(UserService userService) {
+        this.userService = userService;
+    }
+
+    @Override
+    public boolean supportsParameter(MethodParameter parameter) {
+        return parameter.hasParameterAnnotation(CurrentUser.class)
+                && UserSummary.class.isAssignableFrom(parameter.getParameterType());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object resolveArgument(MethodParameter parameter, ModelAndViewContainer mavContainer,
+                                  NativeWebRequest webRequest, WebDataBinderFactory binderFactory) {
+        Optional<UserSummary> memoized = (Optional<UserSummary>)
+                webRequest.getAttribute(CURRENT_USER_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (memoized == null) {
+            memoized = loadCurrentUser();
+            webRequest.setAttribute(CURRENT_USER_ATTRIBUTE, memoized, RequestAttributes.SCOPE_REQUEST);
+        }
+        return memoized.orElse(null);
+    }
+
+    private Optional<UserSummary> loadCurrentUser() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (authentication == null || !authentication.isAuthenticated()
+                || authentication instanceof AnonymousAuthenticationToken) {
+            return Optional.empty();
+        }
+
+        Optional<UserSummary> user = userService.findSummaryByPhone(authentication.getName());
+        if (user.isEmpty()) {
+            logger.warn("Аутентифицированный пользователь {} не найден в базе данных", authentication.getName());
+        }
+        return user;
+    }
+}
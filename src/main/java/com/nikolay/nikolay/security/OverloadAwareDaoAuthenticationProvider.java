@@ -0,0 +1,52 @@
+package com.nikolay.nikolay.security;
+
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.userdetails.UserDetails;
+
+/**
+ * DaoAuthenticationProvider, который не повторяет проверку пароля, отклоненную пулом хеширования.
+ *
+ * Если пользователь взят из UserCache и проверка пароля завершилась любым AuthenticationException,
+ * AbstractUserDetailsAuthenticationProvider перезагружает пользователя из БД и проверяет пароль еще раз.
+ * Для PasswordHashingRejectedException это лишний запрос в БД и вторая задача в уже переполненный пул,
+ * поэтому отказ проносится мимо этого повтора в обертке, не являющейся AuthenticationException.
+ */
+class OverloadAwareDaoAuthenticationProvider extends DaoAuthenticationProvider {
+
+    @Override
+    public Authentication authenticate(Authentication authentication) throws AuthenticationException {
+        try {
+            return super.authenticate(authentication);
+        } catch (HashingRejected e) {
+            throw e.rejection;
+        }
+    }
+
+    @Override
+    protected void additionalAuthenticationChecks(UserDetails userDetails,
+                                                  UsernamePasswordAuthenticationToken authentication)
+            throws AuthenticationException {
+        try {
+            super.additionalAuthenticationChecks(userDetails, authentication);
+        } catch (PasswordHashingRejectedException e) {
+            throw new HashingRejected(e);
+        }
+    }
+
+    /**
+     * Переносит отказ пула через блок повтора в AbstractUserDetailsAuthenticationProvider.authenticate.
+     */
+    private static final class HashingRejected extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final PasswordHashingRejectedException rejection;
+
+        private HashingRejected(PasswordHashingRejectedException rejection) {
+            super(rejection.getMessage(), rejection, false, false);
+            this.rejection = rejection;
+        }
+    }
+}
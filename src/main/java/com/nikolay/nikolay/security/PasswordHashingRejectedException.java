@@ -0,0 +1,27 @@
+package com.nikolay.nikolay.security;
+
+import org.springframework.security.authentication.InternalAuthenticationServiceException;
+
+/**
+ * Выбрасывается, когда пул хеширования паролей перегружен и задача отклонена.
+ * Наследует InternalAuthenticationServiceException, чтобы ProviderManager сразу прекращал попытку входа
+ * и не повторял ее в родительском AuthenticationManager (повторная задача снова попала бы в очередь).
+ */
+public class PasswordHashingRejectedException extends InternalAuthenticationServiceException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int retryAfterSeconds;
+
+    public PasswordHashingRejectedException(String message, int retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Рекомендуемая задержка перед повтором (для заголовка Retry-After).
+     */
+    public int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,69 @@
+package com.nikolay.nikolay.security;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.nikolay.nikolay.util.PhoneNumbers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * Ограниченный по размеру кэш UserDetails с временем жизни записей.
+ * Ключ — нормализованный номер телефона, поэтому «8 (999) ...» и «+7999...» попадают в одну запись.
+ *
+ * В кэше хранятся копии: после успешного входа ProviderManager стирает пароль у возвращенного principal,
+ * и без копирования следующая попытка входа получила бы из кэша UserDetails без хеша пароля.
+ */
+@Component
+public class PhoneUserCache implements UserCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(PhoneUserCache.class);
+
+    private final Cache<String, UserDetails> cache;
+
+    public PhoneUserCache(@Value("${app.user-cache.max-size:10000}") long maxSize,
+                          @Value("${app.user-cache.ttl:PT5M}") Duration ttl) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .build();
+        logger.info("Кэш пользователей: maxSize={}, ttl={}", maxSize, ttl);
+    }
+
+    @Override
+    public UserDetails getUserFromCache(String username) {
+        String key = PhoneNumbers.normalize(username);
+        if (key == null) {
+            return null;
+        }
+        UserDetails cached = cache.getIfPresent(key);
+        return cached != null ? copyOf(cached) : null;
+    }
+
+    @Override
+    public void putUserInCache(UserDetails user) {
+        String key = PhoneNumbers.normalize(user.getUsername());
+        if (key != null && user.getPassword() != null) {
+            cache.put(key, copyOf(user));
+        }
+    }
+
+    @Override
+    public void removeUserFromCache(String username) {
+        String key = PhoneNumbers.normalize(username);
+        if (key != null) {
+            cache.invalidate(key);
+            logger.debug("Пользователь {} удален из кэша", key);
+        }
+    }
+
+    private static UserDetails copyOf(UserDetails user) {
+        return User.withUserDetails(user).build();
+    }
+}
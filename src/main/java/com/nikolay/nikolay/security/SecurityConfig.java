@@ -1,6 +1,8 @@
 package com.nikolay.nikolay.security;
 
 import com.nikolay.nikolay.service.CustomUserDetailsService;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.HttpHeaders;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.AuthenticationManager;
@@ -11,7 +13,10 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.SecurityFilterChain;
+import org.springframework.security.web.authentication.AuthenticationFailureHandler;
+import org.springframework.security.web.authentication.SimpleUrlAuthenticationFailureHandler;
 import org.springframework.security.config.Customizer;
+import org.springframework.security.core.userdetails.UserCache;
 
 /**
  * Конфигурация Spring Security для веб-приложения.
@@ -24,10 +29,13 @@ public class SecurityConfig {
 
     private final CustomUserDetailsService customUserDetailsService;
     private final PasswordEncoder passwordEncoder;
+    private final UserCache userCache;
 
-    public SecurityConfig(CustomUserDetailsService customUserDetailsService, PasswordEncoder passwordEncoder) {
+    public SecurityConfig(CustomUserDetailsService customUserDetailsService, PasswordEncoder passwordEncoder,
+                          UserCache userCache) {
         this.customUserDetailsService = customUserDetailsService;
         this.passwordEncoder = passwordEncoder;
+        this.userCache = userCache;
     }
 
     /**
@@ -41,12 +49,14 @@ public class SecurityConfig {
                 .cors(Customizer.withDefaults())
                 .authenticationProvider(authenticationProvider())
                 .authorizeHttpRequests(auth -> auth
-                        .requestMatchers("/admin/**").hasRole("ADMIN")
+                        .requestMatchers("/admin/**", "/actuator/**").hasRole("ADMIN")
                         .requestMatchers(
                                 "/",
+                                "/ref",
                                 "/register",
                                 "/register/send-code",
                                 "/register/verify",
+                                "/register/call-status",
                                 "/login",
                                 "/telegram-callback",
                                 "/process-telegram-auth",
@@ -62,14 +72,14 @@ public class SecurityConfig {
                         .loginPage("/login")
                         .loginProcessingUrl("/login")
                         .defaultSuccessUrl("/", true)
-                        .failureUrl("/login?error=true")
+                        .failureHandler(loginFailureHandler())
                         .permitAll()
                 )
                 .logout(logout -> logout
                         .logoutUrl("/logout")
                         .logoutSuccessUrl("/login?logout=true")
                         .invalidateHttpSession(true)
-                        .deleteCookies("JSESSIONID")
+                        .deleteCookies("SESSION")
                         .permitAll()
                 )
                 .csrf(csrf -> csrf.disable());
@@ -77,14 +87,37 @@ public class SecurityConfig {
         return http.build();
     }
 
+    /**
+     * Обработчик неудачного входа: при перегрузке пула хеширования паролей сразу отвечает 503 с Retry-After,
+     * в остальных случаях перенаправляет на страницу входа с ошибкой.
+     */
+    private AuthenticationFailureHandler loginFailureHandler() {
+        SimpleUrlAuthenticationFailureHandler defaultHandler = new SimpleUrlAuthenticationFailureHandler("/login?error=true");
+        return (request, response, exception) -> {
+            if (exception instanceof PasswordHashingRejectedException rejected) {
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(rejected.getRetryAfterSeconds()));
+                response.setContentType("text/plain;charset=UTF-8");
+                response.getWriter().write("Сервер перегружен, повторите вход через несколько секунд.");
+                return;
+            }
+            defaultHandler.onAuthenticationFailure(request, response, exception);
+        };
+    }
+
     /**
      * Создает и настраивает DaoAuthenticationProvider.
+     * Повторные входы одного пользователя обслуживаются из кэша без запроса в БД.
      */
     @Bean
     public DaoAuthenticationProvider authenticationProvider() {
-        DaoAuthenticationProvider authProvider = new DaoAuthenticationProvider();
+        // Отказ пула хеширования не повторяется на перезагруженном из БД пользователе
+        DaoAuthenticationProvider authProvider = new OverloadAwareDaoAuthenticationProvider();
         authProvider.setUserDetailsService(customUserDetailsService);
         authProvider.setPasswordEncoder(passwordEncoder);
+        authProvider.setUserCache(userCache);
+        // Пересохранение хеша пароля при изменении сложности BCrypt
+        authProvider.setUserDetailsPasswordService(customUserDetailsService);
         return authProvider;
     }
 
@@ -2,26 +2,39 @@ package com.nikolay.nikolay.service;
 
 import com.nikolay.nikolay.model.User;
 import com.nikolay.nikolay.repository.UserRepository;
+import com.nikolay.nikolay.util.PhoneNumbers;
+import org.springframework.security.core.userdetails.UserCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsPasswordService;
 import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 @Service
-public class CustomUserDetailsService implements UserDetailsService {
+public class CustomUserDetailsService implements UserDetailsService, UserDetailsPasswordService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CustomUserDetailsService.class);
 
     private final UserRepository userRepository;
-    private final UserService userService; // Внедряем UserService
+    private final UserCache userCache;
 
-    public CustomUserDetailsService(UserRepository userRepository, UserService userService) { // Добавляем userService в конструктор
+    public CustomUserDetailsService(UserRepository userRepository, UserCache userCache) {
         this.userRepository = userRepository;
-        this.userService = userService;
+        this.userCache = userCache;
     }
 
+    /**
+     * Загружает пользователя из БД.
+     * Кэш здесь не используется: DaoAuthenticationProvider сам обращается к UserCache
+     * и вызывает этот метод при промахе или при несовпадении пароля у закэшированной записи.
+     */
     @Override
     public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
         // --- ВАЖНО: Нормализуем 'username' (который является телефоном) ПЕРЕД поиском ---
-        String normalizedPhone = userService.normalizePhoneNumber(username);
+        String normalizedPhone = PhoneNumbers.normalize(username);
         if (normalizedPhone == null) {
             throw new UsernameNotFoundException("Некорректный формат номера телефона: " + username);
         }
@@ -41,4 +54,42 @@ public class CustomUserDetailsService implements UserDetailsService {
                 .disabled(false)
                 .build();
     }
+
+    /**
+     * Сохраняет пересчитанный хеш пароля после успешного входа
+     * (DaoAuthenticationProvider вызывает метод, если PasswordEncoder.upgradeEncoding вернул true).
+     * Обновленные данные сразу кладутся в кэш, чтобы следующий вход не проверял пароль по старому хешу.
+     */
+    @Override
+    @Transactional
+    public UserDetails updatePassword(UserDetails user, String newPassword) {
+        int updated = userRepository.updatePasswordByPhone(user.getUsername(), newPassword);
+        if (updated != 1) {
+            logger.warn("Не удалось обновить хеш пароля пользователя {} (обновлено строк: {})", user.getUsername(), updated);
+            return user;
+        }
+        logger.info("Хеш пароля пользователя {} пересчитан с текущей сложностью", user.getUsername());
+
+        UserDetails updatedUser = org.springframework.security.core.userdetails.User.withUserDetails(user)
+                .password(newPassword)
+                .build();
+        userCache.putUserInCache(updatedUser);
+        return updatedUser;
+    }
+
+    /**
+     * Загружает пользователя с использованием кэша.
+     * Для программной аутентификации (Telegram, завершение регистрации), где пароль не проверяется.
+     * @param username Телефон пользователя в любом допустимом формате.
+     * @return UserDetails пользователя.
+     */
+    public UserDetails loadUserByUsernameCached(String username) throws UsernameNotFoundException {
+        UserDetails cached = userCache.getUserFromCache(username);
+        if (cached != null) {
+            return cached;
+        }
+        UserDetails loaded = loadUserByUsername(username);
+        userCache.putUserInCache(loaded);
+        return loaded;
+    }
 }
@@ -0,0 +1,204 @@
+package com.nikolay.nikolay.service;
+
+import com.nikolay.nikolay.dto.ExportJobStatus;
+import com.nikolay.nikolay.enums.ExportJobState;
+import com.nikolay.nikolay.repository.UserRepository;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Фоновые выгрузки пользователей в CSV.
+ * Выгрузка пишется в сжатый временный файл в отдельном пуле потоков, не занимая поток запроса;
+ * администратор следит за прогрессом и скачивает готовый файл. Число одновременных выгрузок и очередь ограничены,
+ * готовые файлы удаляются по истечении app.export.ttl.
+ */
+@Service
+public class ExportJobService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExportJobService.class);
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final UserExportService userExportService;
+    private final UserRepository userRepository;
+    private final ThreadPoolExecutor executor;
+    private final Path directory;
+    private final Duration ttl;
+    private final Map<String, ExportJob> jobs = new ConcurrentHashMap<>();
+
+    public ExportJobService(UserExportService userExportService, UserRepository userRepository,
+                            @Value("${app.export.max-concurrent-jobs:2}") int maxConcurrentJobs,
+                            @Value("${app.export.queue-capacity:4}") int queueCapacity,
+                            @Value("${app.export.dir:}") String directory,
+                            @Value("${app.export.ttl:PT1H}") Duration ttl) {
+        this.userExportService = userExportService;
+        this.userRepository = userRepository;
+        this.ttl = ttl;
+        this.directory = directory == null || directory.isBlank()
+                ? Paths.get(System.getProperty("java.io.tmpdir"))
+                : Paths.get(directory);
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxConcurrentJobs, maxConcurrentJobs, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "export-job-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        logger.info("Фоновые выгрузки: потоков={}, очередь={}, каталог={}, срок хранения={}",
+                maxConcurrentJobs, queueCapacity, this.directory, ttl);
+    }
+
+    /**
+     * Ставит выгрузку пользователей в очередь.
+     * @return Идентификатор задачи.
+     * @throws RejectedExecutionException если все потоки заняты и очередь заполнена.
+     */
+    public String startUsersExport() {
+        ExportJob job = new ExportJob(UUID.randomUUID().toString());
+        jobs.put(job.id, job);
+        try {
+            executor.execute(() -> runUsersExport(job));
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.id);
+            logger.warn("Выгрузка отклонена: достигнут предел одновременных выгрузок");
+            throw e;
+        }
+        logger.info("Выгрузка пользователей {} поставлена в очередь", job.id);
+        return job.id;
+    }
+
+    /**
+     * Возвращает состояние выгрузки или Optional.empty(), если задача неизвестна или уже удалена.
+     */
+    public Optional<ExportJobStatus> getStatus(String jobId) {
+        return Optional.ofNullable(jobId != null ? jobs.get(jobId) : null).map(ExportJob::toStatus);
+    }
+
+    /**
+     * Возвращает файл завершенной выгрузки.
+     */
+    public Optional<Path> getFile(String jobId) {
+        ExportJob job = jobId != null ? jobs.get(jobId) : null;
+        if (job == null || job.state != ExportJobState.DONE || job.file == null || !Files.exists(job.file)) {
+            return Optional.empty();
+        }
+        return Optional.of(job.file);
+    }
+
+    private void runUsersExport(ExportJob job) {
+        job.state = ExportJobState.RUNNING;
+        Path file = null;
+        try {
+            job.totalRows = userRepository.count();
+            file = Files.createTempFile(directory, "users-export-", ".csv.gz");
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(Files.newOutputStream(file), WRITE_BUFFER_SIZE), StandardCharsets.UTF_8),
+                    WRITE_BUFFER_SIZE)) {
+                userExportService.writeCsv(writer, rows -> job.rowsWritten = rows);
+            }
+            job.file = file;
+            job.fileSize = Files.size(file);
+            job.finish(ExportJobState.DONE, null);
+            logger.info("Выгрузка {} завершена: {} строк, {} байт", job.id, job.rowsWritten, job.fileSize);
+        } catch (Exception e) {
+            logger.error("Ошибка фоновой выгрузки {}", job.id, e);
+            deleteQuietly(file);
+            job.finish(ExportJobState.FAILED, e.getMessage());
+        }
+    }
+
+    /**
+     * Удаляет завершенные выгрузки старше app.export.ttl вместе с файлами.
+     */
+    @Scheduled(fixedDelayString = "${app.export.cleanup-interval:PT5M}")
+    public void removeExpiredJobs() {
+        LocalDateTime threshold = LocalDateTime.now().minus(ttl);
+        jobs.values().removeIf(job -> {
+            LocalDateTime finishedAt = job.finishedAt;
+            if (finishedAt == null || finishedAt.isAfter(threshold)) {
+                return false;
+            }
+            deleteQuietly(job.file);
+            logger.info("Выгрузка {} удалена по истечении срока хранения", job.id);
+            return true;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        jobs.values().forEach(job -> deleteQuietly(job.file));
+        jobs.clear();
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Не удалось удалить файл выгрузки {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * Изменяемое состояние задачи. Пишет только поток выгрузки, читают потоки запросов.
+     */
+    private static final class ExportJob {
+        private final String id;
+        private final LocalDateTime createdAt = LocalDateTime.now();
+        private volatile ExportJobState state = ExportJobState.QUEUED;
+        private volatile long rowsWritten;
+        private volatile long totalRows;
+        private volatile Path file;
+        private volatile long fileSize;
+        private volatile String error;
+        private volatile LocalDateTime finishedAt;
+
+        private ExportJob(String id) {
+            this.id = id;
+        }
+
+        private void finish(ExportJobState finalState, String errorMessage) {
+            this.error = errorMessage;
+            this.finishedAt = LocalDateTime.now();
+            // Состояние выставляется последним: увидевший DONE поток видит и файл, и размер
+            this.state = finalState;
+        }
+
+        private ExportJobStatus toStatus() {
+            ExportJobState currentState = state;
+            return new ExportJobStatus(id, currentState, rowsWritten, totalRows, fileSize, createdAt, finishedAt, error);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.nikolay.nikolay.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Хранилище кодов подтверждения в памяти с ограниченным сроком жизни и емкостью.
+ * Истекшие коды удаляются периодической очисткой, даже если пользователь так и не ввел код.
+ * При заполнении новые номера не принимаются (коды, уже отправленные пользователям, не вытесняются),
+ * так что поток запросов на отправку кода не может расти в памяти без ограничений.
+ * Время отсчитывается по System.nanoTime и не зависит от перевода системных часов.
+ * Подходит только для одного экземпляра приложения: код, выданный одним узлом, другому узлу неизвестен.
+ */
+@Component
+@ConditionalOnProperty(name = "app.verification.codes.store", havingValue = "memory", matchIfMissing = true)
+public class InMemoryVerificationCodeStore implements VerificationCodeStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(InMemoryVerificationCodeStore.class);
+
+    private final Map<String, Entry> codes = new ConcurrentHashMap<>();
+    private final long ttlNanos;
+    private final int maxEntries;
+    private final Counter expired;
+    private final Counter rejected;
+
+    public InMemoryVerificationCodeStore(@Value("${app.verification.codes.ttl:PT5M}") Duration ttl,
+                                         @Value("${app.verification.codes.max-entries:100000}") int maxEntries,
+                                         MeterRegistry meterRegistry) {
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+
+        Gauge.builder("verification.codes.live", codes, Map::size)
+                .description("Число хранимых кодов подтверждения")
+                .register(meterRegistry);
+        this.expired = Counter.builder("verification.codes.evicted").tag("reason", "expired")
+                .description("Коды, удаленные по истечении срока")
+                .register(meterRegistry);
+        this.rejected = Counter.builder("verification.codes.evicted").tag("reason", "overflow")
+                .description("Коды, не сохраненные из-за заполненного хранилища")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Место есть, если номер уже хранится (код будет заменен) или хранилище не заполнено.
+     */
+    @Override
+    public boolean hasCapacityFor(String phone) {
+        if (codes.containsKey(phone) || codes.size() < maxEntries) {
+            return true;
+        }
+        // Сначала освобождаем место от истекших кодов, только потом отказываем
+        removeExpired();
+        return codes.size() < maxEntries;
+    }
+
+    /**
+     * Сохраняет код для номера, заменяя предыдущий.
+     * @return false, если хранилище заполнено и номера в нем еще нет.
+     */
+    @Override
+    public boolean put(String phone, String code) {
+        if (!hasCapacityFor(phone)) {
+            rejected.increment();
+            logger.warn("Хранилище кодов заполнено ({} записей), код для {} не сохранен", maxEntries, phone);
+            return false;
+        }
+        codes.put(phone, new Entry(code, System.nanoTime() + ttlNanos));
+        return true;
+    }
+
+    /**
+     * Сравнивает код с действующим кодом номера. Истекший код удаляется.
+     */
+    @Override
+    public Match match(String phone, String code) {
+        Entry entry = codes.get(phone);
+        if (entry == null) {
+            return Match.MISSING;
+        }
+        if (entry.isExpired(System.nanoTime())) {
+            if (codes.remove(phone, entry)) {
+                expired.increment();
+            }
+            return Match.MISSING;
+        }
+        boolean valid = code != null && MessageDigest.isEqual(
+                entry.code.getBytes(StandardCharsets.UTF_8), code.getBytes(StandardCharsets.UTF_8));
+        return valid ? Match.VALID : Match.INVALID;
+    }
+
+    @Override
+    public boolean remove(String phone) {
+        return codes.remove(phone) != null;
+    }
+
+    /**
+     * Периодическая очистка истекших кодов.
+     */
+    @Scheduled(fixedDelayString = "${app.verification.codes.sweep-interval:PT30S}")
+    public void removeExpired() {
+        long now = System.nanoTime();
+        int[] removed = {0};
+        codes.entrySet().removeIf(e -> {
+            if (e.getValue().isExpired(now)) {
+                removed[0]++;
+                return true;
+            }
+            return false;
+        });
+        if (removed[0] > 0) {
+            expired.increment(removed[0]);
+            logger.debug("Удалено истекших кодов подтверждения: {}", removed[0]);
+        }
+    }
+
+    private static final class Entry {
+        private final String code;
+        private final long expiresAtNanos;
+
+        private Entry(String code, long expiresAtNanos) {
+            this.code = code;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiresAtNanos >= 0;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package com.nikolay.nikolay.service;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.nikolay.nikolay.dto.UserAccessSet;
+import com.nikolay.nikolay.repository.DataMigrationRepository;
+import com.nikolay.nikolay.repository.UserInstructionAccessRepository;
+import com.nikolay.nikolay.util.AfterCommit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.Duration;
+
+/**
+ * Сервис прав доступа пользователей к инструкциям.
+ * Права хранятся в таблице user_instruction_access; для проверок на каждый запрос
+ * используется ограниченный по размеру и времени жизни кэш наборов {@link UserAccessSet}.
+ */
+@Service
+public class InstructionAccessService {
+
+    private static final Logger logger = LoggerFactory.getLogger(InstructionAccessService.class);
+
+    // Имя отметки в data_migration для переноса доступов из users.referral_link
+    static final String REFERRAL_LINKS_MIGRATION = "referral-links-to-user-instruction-access";
+
+    private final UserInstructionAccessRepository accessRepository;
+    private final DataMigrationRepository migrationRepository;
+    // Кэш скомпилированных наборов доступа (ID пользователя -> набор ID инструкций)
+    private final LoadingCache<Long, UserAccessSet> accessSets;
+
+    public InstructionAccessService(UserInstructionAccessRepository accessRepository,
+                                    DataMigrationRepository migrationRepository,
+                                    @Value("${app.access-cache.max-size:10000}") long maxSize,
+                                    @Value("${app.access-cache.ttl:PT10M}") Duration ttl) {
+        this.accessRepository = accessRepository;
+        this.migrationRepository = migrationRepository;
+        this.accessSets = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .build(CacheLoader.from(this::loadAccessSet));
+    }
+
+    /**
+     * Выдает пользователю доступ к инструкции (INSERT IGNORE).
+     * Новый доступ сбрасывает набор пользователя в кэше после фиксации транзакции.
+     * @return true, если доступ был добавлен, false — если он уже существовал.
+     */
+    @Transactional
+    public boolean grantAccess(Long userId, Long instructionId) {
+        if (userId == null || instructionId == null) {
+            logger.warn("Попытка выдать доступ с пустыми параметрами: userId={}, instructionId={}", userId, instructionId);
+            return false;
+        }
+        boolean granted = accessRepository.grant(userId, instructionId) > 0;
+        if (granted) {
+            AfterCommit.run(() -> invalidateAccessSet(userId));
+        }
+        logger.debug("Доступ к инструкции ID {} для пользователя ID {}: {}", instructionId, userId,
+                granted ? "выдан" : "уже существует");
+        return granted;
+    }
+
+    /**
+     * Проверяет доступ пользователя к инструкции по кэшированному набору, без запроса к БД.
+     * Актуальность набора обеспечивает сброс после фиксации каждой выдачи доступа.
+     */
+    public boolean hasAccess(Long userId, Long instructionId) {
+        if (userId == null || instructionId == null) {
+            return false;
+        }
+        return getAccessSet(userId).contains(instructionId);
+    }
+
+    /**
+     * Возвращает компактный набор ID инструкций, доступных пользователю.
+     * Набор строится один раз и хранится в кэше до истечения TTL или сброса.
+     */
+    public UserAccessSet getAccessSet(Long userId) {
+        if (userId == null) {
+            return UserAccessSet.EMPTY;
+        }
+        return accessSets.getUnchecked(userId);
+    }
+
+    /**
+     * Сбрасывает кэшированный набор доступа пользователя.
+     * Вызывается после фиксации выдачи доступа, пакета импорта и изменения пользователя.
+     */
+    public void invalidateAccessSet(Long userId) {
+        if (userId != null) {
+            accessSets.invalidate(userId);
+        }
+    }
+
+    /**
+     * Удаляет все доступы к инструкции (при удалении самой инструкции).
+     */
+    @Transactional
+    public void revokeAllForInstruction(Long instructionId) {
+        int removed = accessRepository.deleteByInstructionId(instructionId);
+        accessSets.invalidateAll();
+        logger.info("Удалено {} доступов к инструкции ID {}", removed, instructionId);
+    }
+
+    private UserAccessSet loadAccessSet(Long userId) {
+        return UserAccessSet.of(accessRepository.findInstructionIdsByUserId(userId));
+    }
+
+    /**
+     * Однократная миграция доступов из строки users.referral_link.
+     * Выполнение отмечается строкой в data_migration в той же транзакции, поэтому при одновременном старте
+     * нескольких экземпляров миграцию выполняет ровно один, а после сбоя она повторяется при следующем старте.
+     * Если доступы уже есть, а отметки нет (база перенесена прежней версией), ставится только отметка.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional
+    public void migrateReferralLinks() {
+        if (migrationRepository.markApplied(REFERRAL_LINKS_MIGRATION) == 0) {
+            logger.debug("Миграция referralLink уже выполнена");
+            return;
+        }
+        if (accessRepository.count() > 0) {
+            logger.info("Таблица user_instruction_access уже заполнена, миграция referralLink отмечена без переноса");
+            return;
+        }
+        int migrated = accessRepository.migrateFromReferralLinks();
+        logger.info("Миграция доступов из referralLink завершена: перенесено {} записей", migrated);
+    }
+}
@@ -0,0 +1,74 @@
+package com.nikolay.nikolay.service;
+
+import com.nikolay.nikolay.dto.InstructionPage;
+import com.nikolay.nikolay.dto.InstructionSummary;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Неизменяемый снимок каталога инструкций.
+ * Индексы по ID и по QR-коду строятся один раз при создании снимка и не меняются;
+ * при изменении инструкций InstructionService целиком заменяет снимок новым.
+ * Содержимое страниц (LOB) подгружается лениво и живет столько же, сколько сам снимок.
+ */
+final class InstructionCatalog {
+
+    private final List<InstructionSummary> summaries;
+    private final Map<Long, InstructionSummary> byId;
+    private final Map<String, InstructionSummary> byQrCode;
+    // Страницы, загруженные в рамках этого поколения каталога
+    private final Map<Long, InstructionPage> pages = new ConcurrentHashMap<>();
+
+    InstructionCatalog(List<InstructionSummary> summaries) {
+        Map<Long, InstructionSummary> idIndex = new LinkedHashMap<>();
+        Map<String, InstructionSummary> qrIndex = new LinkedHashMap<>();
+        for (InstructionSummary summary : summaries) {
+            idIndex.put(summary.getId(), summary);
+            if (summary.getQrCode() != null && !summary.getQrCode().isEmpty()) {
+                qrIndex.put(summary.getQrCode(), summary);
+            }
+        }
+        this.summaries = List.copyOf(summaries);
+        this.byId = Collections.unmodifiableMap(idIndex);
+        this.byQrCode = Collections.unmodifiableMap(qrIndex);
+    }
+
+    List<InstructionSummary> getSummaries() {
+        return summaries;
+    }
+
+    InstructionSummary findById(Long id) {
+        return id != null ? byId.get(id) : null;
+    }
+
+    InstructionSummary findByQrCode(String qrCode) {
+        return qrCode != null ? byQrCode.get(qrCode) : null;
+    }
+
+    /**
+     * Возвращает уже загруженную страницу инструкции, если она есть в этом поколении каталога.
+     */
+    InstructionPage getLoadedPage(Long id) {
+        return pages.get(id);
+    }
+
+    /**
+     * Возвращает страницу инструкции, при необходимости загружая ее через loader.
+     * Загрузчик не вызывается для ID, которых нет в каталоге.
+     */
+    InstructionPage getPage(Long id, Function<Long, InstructionPage> loader) {
+        if (findById(id) == null) {
+            return null;
+        }
+        return pages.computeIfAbsent(id, loader);
+    }
+
+    int size() {
+        return summaries.size();
+    }
+}
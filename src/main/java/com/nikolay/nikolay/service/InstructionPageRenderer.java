@@ -0,0 +1,78 @@
+package com.nikolay.nikolay.service;
+
+import com.nikolay.nikolay.dto.InstructionPage;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+import org.thymeleaf.ITemplateEngine;
+import org.thymeleaf.context.Context;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Рендерит страницу инструкции (шаблон instruction.html) и сжимает ее gzip.
+ * Вызывается при сохранении инструкции, чтобы не сжимать страницу на каждом просмотре.
+ * Шаблон не должен использовать выражения, требующие веб-контекста (например, @{/...}).
+ * Версия рендерера (хеш шаблона и RENDER_FORMAT) входит в хеш содержимого инструкции, поэтому после изменения
+ * шаблона сохраненные страницы перерендериваются при старте, а клиенты получают новый ETag.
+ */
+@Component
+public class InstructionPageRenderer {
+
+    private static final String TEMPLATE = "instruction";
+    private static final Locale LOCALE = Locale.forLanguageTag("ru");
+    // Увеличивается при изменении способа рендеринга или сжатия, не отраженном в самом шаблоне
+    private static final int RENDER_FORMAT = 1;
+
+    private final ITemplateEngine templateEngine;
+    private final String version;
+
+    public InstructionPageRenderer(ITemplateEngine templateEngine, ResourceLoader resourceLoader,
+                                   @Value("${spring.thymeleaf.prefix:classpath:/templates/}") String prefix,
+                                   @Value("${spring.thymeleaf.suffix:.html}") String suffix) {
+        this.templateEngine = templateEngine;
+        try (InputStream template = resourceLoader.getResource(prefix + TEMPLATE + suffix).getInputStream()) {
+            this.version = RENDER_FORMAT + ":" + DigestUtils.sha256Hex(template);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось прочитать шаблон страницы инструкции", e);
+        }
+    }
+
+    /**
+     * Версия рендерера: меняется при изменении шаблона instruction.html или RENDER_FORMAT.
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * Рендерит страницу инструкции и возвращает ее в виде gzip.
+     * @param page Данные инструкции.
+     * @return Сжатая страница в кодировке UTF-8.
+     */
+    public byte[] renderGzip(InstructionPage page) {
+        Context context = new Context(LOCALE);
+        context.setVariable("instruction", page);
+        String html = templateEngine.process(TEMPLATE, context);
+        return gzip(html.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.max(512, data.length / 4));
+        // Сжатие выполняется один раз при сохранении, поэтому используем максимальный уровень
+        try (GZIPOutputStream out = new GZIPOutputStream(buffer) {{ def.setLevel(Deflater.BEST_COMPRESSION); }}) {
+            out.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Не удалось сжать страницу инструкции", e);
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -0,0 +1,274 @@
+package com.nikolay.nikolay.service;
+
+import com.nikolay.nikolay.model.Instruction;
+import com.nikolay.nikolay.repository.InstructionRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Полнотекстовый поиск по инструкциям на основе инвертированного индекса в памяти.
+ * Индексируются название и содержимое без HTML-тегов. Термины хранятся в отсортированном
+ * словаре, поэтому поиск по префиксу — это выборка диапазона ключей.
+ * Индекс обновляется инкрементально при сохранении и удалении инструкций
+ * и перестраивается целиком, когда инструкции изменил другой экземпляр приложения.
+ */
+@Service
+public class InstructionSearchService {
+
+    private static final Logger logger = LoggerFactory.getLogger(InstructionSearchService.class);
+
+    // Максимальное количество результатов поиска
+    private static final int MAX_RESULTS = 50;
+    // Максимальное количество терминов в запросе
+    private static final int MAX_QUERY_TERMS = 8;
+    // Размер страницы при первичном построении индекса
+    private static final int BUILD_PAGE_SIZE = 100;
+
+    private static final Pattern SCRIPT_OR_STYLE = Pattern.compile("(?is)<(script|style)[^>]*>.*?</\\1>");
+    private static final Pattern TAG = Pattern.compile("(?s)<[^>]*>");
+    private static final Pattern ENTITY = Pattern.compile("&[#a-zA-Z0-9]+;");
+
+    // Типичные окончания русских слов; отбрасываются у терминов запроса, чтобы префикс находил другие формы слова
+    private static final String[] RUSSIAN_ENDINGS = {
+            "ями", "ами", "ого", "его", "ому", "ему", "ыми", "ими",
+            "ов", "ев", "ей", "ах", "ях", "ом", "ем", "ой", "ую", "юю", "ая", "яя", "ое", "ее", "ые", "ие", "ый", "ий",
+            "а", "я", "ы", "и", "у", "ю", "е", "о", "ь", "й"
+    };
+    private static final int MIN_STEM_LENGTH = 4;
+
+    private final InstructionRepository instructionRepository;
+
+    // Термин -> ID инструкций, в которых он встречается
+    private final ConcurrentSkipListMap<String, Set<Long>> postings = new ConcurrentSkipListMap<>();
+    // ID инструкции -> ее термины (для инкрементального удаления из индекса)
+    private final Map<Long, Set<String>> documentTerms = new ConcurrentHashMap<>();
+    // ID инструкции -> термины названия (для ранжирования)
+    private final Map<Long, Set<String>> titleTerms = new ConcurrentHashMap<>();
+
+    public InstructionSearchService(InstructionRepository instructionRepository) {
+        this.instructionRepository = instructionRepository;
+    }
+
+    /**
+     * Строит индекс по всем инструкциям при старте приложения (постранично, чтобы не держать все LOB в памяти).
+     * При повторном вызове обновляет измененные инструкции и удаляет из индекса отсутствующие в БД.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildIndex() {
+        long started = System.nanoTime();
+        // Удаляются только инструкции, бывшие в индексе до начала обхода: созданные во время обхода остаются
+        Set<Long> stale = new HashSet<>(documentTerms.keySet());
+        int indexed = 0;
+        Page<Instruction> page;
+        int pageNumber = 0;
+        do {
+            page = instructionRepository.findAll(PageRequest.of(pageNumber++, BUILD_PAGE_SIZE, Sort.by("id")));
+            for (Instruction instruction : page) {
+                index(instruction);
+                stale.remove(instruction.getId());
+                indexed++;
+            }
+        } while (page.hasNext());
+        stale.forEach(this::remove);
+        logger.info("Поисковый индекс построен: {} инструкций, {} терминов за {} мс",
+                indexed, postings.size(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Добавляет или обновляет инструкцию в индексе.
+     * @param instruction Сохраненная инструкция (с заполненным ID).
+     */
+    public synchronized void index(Instruction instruction) {
+        if (instruction == null || instruction.getId() == null) {
+            return;
+        }
+        Long id = instruction.getId();
+        Set<String> title = tokenize(instruction.getTitle());
+        Set<String> terms = new HashSet<>(title);
+        terms.addAll(tokenize(stripHtml(instruction.getContent())));
+
+        Set<String> previous = documentTerms.put(id, terms);
+        if (previous != null) {
+            for (String term : previous) {
+                if (!terms.contains(term)) {
+                    removePosting(term, id);
+                }
+            }
+        }
+        for (String term : terms) {
+            postings.computeIfAbsent(term, t -> ConcurrentHashMap.newKeySet()).add(id);
+        }
+        titleTerms.put(id, title);
+    }
+
+    /**
+     * Удаляет инструкцию из индекса.
+     * @param instructionId ID удаленной инструкции.
+     */
+    public synchronized void remove(Long instructionId) {
+        if (instructionId == null) {
+            return;
+        }
+        Set<String> terms = documentTerms.remove(instructionId);
+        titleTerms.remove(instructionId);
+        if (terms != null) {
+            for (String term : terms) {
+                removePosting(term, instructionId);
+            }
+        }
+    }
+
+    /**
+     * Ищет инструкции, содержащие все термины запроса (каждый — как префикс слова).
+     * Результаты упорядочены по количеству совпадений в названии, затем по ID.
+     * Недоступные пользователю инструкции отбрасываются до ранжирования и ограничения числа результатов,
+     * чтобы они не вытесняли доступные.
+     * @param query Строка запроса.
+     * @param accessible Проверка доступа к инструкции по ID (для администратора — всегда true).
+     * @return ID найденных доступных инструкций (не более {@value #MAX_RESULTS}).
+     */
+    public List<Long> search(String query, Predicate<Long> accessible) {
+        List<String> queryTerms = new ArrayList<>();
+        for (String token : tokenize(query)) {
+            queryTerms.add(stem(token));
+            if (queryTerms.size() == MAX_QUERY_TERMS) {
+                break;
+            }
+        }
+        if (queryTerms.isEmpty()) {
+            return List.of();
+        }
+
+        Set<Long> matches = null;
+        for (String prefix : queryTerms) {
+            Set<Long> termMatches = new HashSet<>();
+            for (Set<Long> ids : prefixRange(prefix).values()) {
+                termMatches.addAll(ids);
+            }
+            if (matches == null) {
+                termMatches.removeIf(accessible.negate());
+                matches = termMatches;
+            } else {
+                matches.retainAll(termMatches);
+            }
+            if (matches.isEmpty()) {
+                return List.of();
+            }
+        }
+
+        Map<Long, Integer> titleScore = new HashMap<>();
+        for (Long id : matches) {
+            titleScore.put(id, countTitleMatches(id, queryTerms));
+        }
+        return matches.stream()
+                .sorted(Comparator.comparing((Long id) -> titleScore.get(id)).reversed()
+                        .thenComparing(Comparator.naturalOrder()))
+                .limit(MAX_RESULTS)
+                .toList();
+    }
+
+    public int getIndexedCount() {
+        return documentTerms.size();
+    }
+
+    private int countTitleMatches(Long id, List<String> queryTerms) {
+        Set<String> terms = titleTerms.getOrDefault(id, Set.of());
+        int score = 0;
+        for (String prefix : queryTerms) {
+            for (String term : terms) {
+                if (term.startsWith(prefix)) {
+                    score++;
+                    break;
+                }
+            }
+        }
+        return score;
+    }
+
+    private NavigableMap<String, Set<Long>> prefixRange(String prefix) {
+        return postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    private void removePosting(String term, Long id) {
+        Set<Long> ids = postings.get(term);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                postings.remove(term, ids);
+            }
+        }
+    }
+
+    /**
+     * Удаляет HTML-разметку (включая script/style) и сущности из содержимого инструкции.
+     */
+    static String stripHtml(String html) {
+        if (html == null || html.isEmpty()) {
+            return "";
+        }
+        String text = SCRIPT_OR_STYLE.matcher(html).replaceAll(" ");
+        text = TAG.matcher(text).replaceAll(" ");
+        return ENTITY.matcher(text).replaceAll(" ");
+    }
+
+    /**
+     * Разбивает текст на термины: последовательности букв и цифр (включая кириллицу),
+     * в нижнем регистре, с заменой «ё» на «е».
+     */
+    static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                char lower = Character.toLowerCase(c);
+                current.append(lower == 'ё' ? 'е' : lower);
+            } else if (current.length() > 0) {
+                tokens.add(current.toString());
+                current.setLength(0);
+            }
+        }
+        if (current.length() > 0) {
+            tokens.add(current.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * Отбрасывает типичное русское окончание у термина запроса, оставляя основу не короче {@value #MIN_STEM_LENGTH} символов.
+     */
+    static String stem(String term) {
+        if (term.length() <= MIN_STEM_LENGTH || !Character.UnicodeBlock.CYRILLIC.equals(Character.UnicodeBlock.of(term.charAt(0)))) {
+            return term;
+        }
+        for (String ending : RUSSIAN_ENDINGS) {
+            if (term.endsWith(ending) && term.length() - ending.length() >= MIN_STEM_LENGTH) {
+                return term.substring(0, term.length() - ending.length());
+            }
+        }
+        return term;
+    }
+}
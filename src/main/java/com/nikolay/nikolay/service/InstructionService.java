@@ -1,43 +1,132 @@
 package com.nikolay.nikolay.service;
 
+import com.nikolay.nikolay.dto.InstructionPage;
+import com.nikolay.nikolay.dto.InstructionSummary;
+import com.nikolay.nikolay.dto.KeysetPage;
 import com.nikolay.nikolay.model.Instruction;
 import com.nikolay.nikolay.repository.InstructionRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.slf4j.Logger; // Импортируем логгер
 import org.slf4j.LoggerFactory; // Импортируем логгер
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Сервис для управления инструкциями.
  * Предоставляет бизнес-логику для работы с сущностями Instruction.
+ * Операции чтения обслуживаются из неизменяемого снимка каталога {@link InstructionCatalog},
+ * который заменяется целиком при сохранении или удалении инструкции.
+ * Изменения, сделанные другими экземплярами приложения, обнаруживаются периодической проверкой версии
+ * набора инструкций в БД (app.catalog.refresh-interval).
  */
 @Service
 public class InstructionService {
 
     private static final Logger logger = LoggerFactory.getLogger(InstructionService.class); // Добавляем логгер
+    // Размер порции при перерендеринге страниц инструкций на старте
+    private static final int RENDER_BATCH_SIZE = 50;
 
     private final InstructionRepository instructionRepository;
     private final FileStorageService fileStorageService; // Предполагаем, что этот сервис нужен для файлов инструкций
+    private final InstructionAccessService instructionAccessService;
+    private final InstructionPageRenderer pageRenderer;
+    private final InstructionSearchService searchService;
+
+    // Текущий снимок каталога (null до первой загрузки)
+    private final AtomicReference<InstructionCatalog> catalog = new AtomicReference<>();
+    // Версия набора инструкций в БД, из которой построен текущий снимок
+    private volatile String catalogVersion;
+    // Счетчики попаданий/промахов кэша страниц инструкций
+    private final Counter catalogHits;
+    private final Counter catalogMisses;
 
     // Конструктор для внедрения зависимостей
-    public InstructionService(InstructionRepository instructionRepository, FileStorageService fileStorageService) {
+    public InstructionService(InstructionRepository instructionRepository, FileStorageService fileStorageService,
+                              InstructionAccessService instructionAccessService, InstructionPageRenderer pageRenderer,
+                              InstructionSearchService searchService, MeterRegistry meterRegistry) {
         this.instructionRepository = instructionRepository;
         this.fileStorageService = fileStorageService;
+        this.instructionAccessService = instructionAccessService;
+        this.pageRenderer = pageRenderer;
+        this.searchService = searchService;
+        this.catalogHits = Counter.builder("instruction.catalog.requests")
+                .description("Обращения к кэшу страниц инструкций")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.catalogMisses = Counter.builder("instruction.catalog.requests")
+                .description("Обращения к кэшу страниц инструкций")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        Gauge.builder("instruction.catalog.size", catalog, ref -> ref.get() != null ? ref.get().size() : 0)
+                .description("Количество инструкций в снимке каталога")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Получает облегченный список всех инструкций (без содержимого).
+     * Используется для списка на главной странице.
+     * @return Неизменяемый список InstructionSummary.
+     */
+    public List<InstructionSummary> getInstructionSummaries() {
+        return currentCatalog().getSummaries();
+    }
+
+    /**
+     * Получает страницу облегченного списка инструкций для админки (keyset-пагинация по ID).
+     * Читается напрямую из БД, чтобы администратор всегда видел актуальное состояние.
+     * @param afterId Курсор — ID последней инструкции предыдущей страницы (null для первой страницы).
+     * @param size Запрошенный размер страницы (ограничивается KeysetPage.MAX_SIZE).
+     * @return Страница InstructionSummary.
+     */
+    public KeysetPage<InstructionSummary> getInstructionSummaryPage(Long afterId, Integer size) {
+        int pageSize = KeysetPage.clampSize(size);
+        long cursor = afterId != null && afterId > 0 ? afterId : 0L;
+        List<InstructionSummary> fetched = instructionRepository.findSummariesAfter(cursor, PageRequest.ofSize(pageSize + 1));
+        return KeysetPage.of(fetched, pageSize, InstructionSummary::getId);
+    }
+
+    /**
+     * Получает облегченное представление инструкции по ID из каталога.
+     * @param id ID инструкции.
+     * @return Optional с InstructionSummary или Optional.empty().
+     */
+    public Optional<InstructionSummary> findSummaryById(Long id) {
+        return Optional.ofNullable(currentCatalog().findById(id));
     }
 
     /**
-     * Получает список всех инструкций.
-     * @return Список всех инструкций.
+     * Получает страницу инструкции (с содержимым) для просмотра.
+     * Содержимое загружается из БД один раз на поколение каталога.
+     * @param id ID инструкции.
+     * @return Optional с InstructionPage или Optional.empty().
      */
-    public List<Instruction> getAllInstructions() {
-        logger.debug("Запрос на получение всех инструкций");
-        return instructionRepository.findAll();
+    public Optional<InstructionPage> getInstructionPage(Long id) {
+        InstructionCatalog current = currentCatalog();
+        InstructionPage page = current.getLoadedPage(id);
+        if (page != null) {
+            catalogHits.increment();
+            return Optional.of(page);
+        }
+        catalogMisses.increment();
+        logger.debug("Страница инструкции ID: {} отсутствует в кэше, загрузка из БД", id);
+        return Optional.ofNullable(current.getPage(id, this::loadPage));
     }
 
     /**
-     * Получает инструкцию по её уникальному идентификатору (ID).
+     * Получает инструкцию по её уникальному идентификатору (ID) напрямую из БД.
+     * Используется для формы редактирования в админке.
      * @param id ID инструкции.
      * @return Optional с найденной инструкцией или Optional.empty().
      */
@@ -47,13 +136,13 @@ public class InstructionService {
     }
 
     /**
-     * Находит инструкцию по её уникальному QR-коду.
+     * Находит инструкцию по её уникальному QR-коду в каталоге.
      * @param qrCode QR-код инструкции.
      * @return Optional с найденной инструкцией или Optional.empty().
      */
-    public Optional<Instruction> findByQrCode(String qrCode) {
+    public Optional<InstructionSummary> findByQrCode(String qrCode) {
         logger.debug("Поиск инструкции по QR-коду: {}", qrCode);
-        return instructionRepository.findByQrCode(qrCode);
+        return Optional.ofNullable(currentCatalog().findByQrCode(qrCode));
     }
 
     /**
@@ -64,8 +153,11 @@ public class InstructionService {
         // Используем логгер вместо System.out.println
         logger.info("Сохранение инструкции ID: {}, Title: '{}'", instruction.getId(), instruction.getTitle());
         // Здесь может быть логика сохранения файлов через fileStorageService, если контент - это ссылка на файл
-        instructionRepository.save(instruction);
-        logger.debug("Инструкция ID: {} успешно сохранена.", instruction.getId());
+        prepareForSave(instruction);
+        Instruction saved = instructionRepository.save(instruction);
+        logger.debug("Инструкция ID: {} успешно сохранена.", saved.getId());
+        refreshCatalog();
+        searchService.index(saved);
     }
 
     /**
@@ -75,7 +167,103 @@ public class InstructionService {
     public void deleteInstruction(Long id) {
         logger.info("Запрос на удаление инструкции ID: {}", id);
         // Здесь может быть логика удаления связанных файлов через fileStorageService
+        instructionAccessService.revokeAllForInstruction(id);
         instructionRepository.deleteById(id);
         logger.info("Инструкция ID: {} успешно удалена.", id);
+        refreshCatalog();
+        searchService.remove(id);
+    }
+
+    /**
+     * Вычисляет хеш содержимого и сжатую страницу для инструкций, сохраненных до появления этих полей
+     * или подготовленных другой версией шаблона instruction.html.
+     * Выполняется один раз при старте приложения, порциями, чтобы не держать все LOB в памяти.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillDerivedFields() {
+        List<Long> ids = instructionRepository.findIdsToRender(pageRenderer.getVersion());
+        if (ids.isEmpty()) {
+            return;
+        }
+        for (int from = 0; from < ids.size(); from += RENDER_BATCH_SIZE) {
+            List<Instruction> batch = instructionRepository.findAllById(
+                    ids.subList(from, Math.min(from + RENDER_BATCH_SIZE, ids.size())));
+            batch.forEach(this::prepareForSave);
+            instructionRepository.saveAll(batch);
+        }
+        logger.info("Подготовлены хеш и сжатая страница для {} инструкций (версия рендерера {})",
+                ids.size(), pageRenderer.getVersion());
+        refreshCatalog();
+    }
+
+    /**
+     * Перезагружает каталог и поисковый индекс, если инструкции изменились в БД с момента построения снимка
+     * (например, их сохранил другой экземпляр приложения). Собственные изменения узел применяет сразу.
+     */
+    @Scheduled(fixedDelayString = "${app.catalog.refresh-interval:PT30S}")
+    public void reloadIfChanged() {
+        if (catalog.get() == null) {
+            return; // Каталог еще не загружался
+        }
+        String version = instructionRepository.findCatalogVersion();
+        if (version.equals(catalogVersion)) {
+            return;
+        }
+        logger.info("Инструкции изменены вне этого экземпляра, перезагрузка каталога и поискового индекса");
+        refreshCatalog();
+        searchService.rebuildIndex();
+    }
+
+    /**
+     * Проставляет хеш содержимого, время изменения, предварительно сжатую страницу и версию рендерера перед сохранением.
+     * Время округляется до секунд, так как заголовок Last-Modified имеет секундную точность.
+     */
+    private void prepareForSave(Instruction instruction) {
+        String title = instruction.getTitle() != null ? instruction.getTitle() : "";
+        String content = instruction.getContent() != null ? instruction.getContent() : "";
+        String renderVersion = pageRenderer.getVersion();
+        instruction.setContentHash(DigestUtils.sha256Hex(renderVersion + '\u0000' + title + '\u0000' + content));
+        instruction.setUpdatedAt(Instant.now().truncatedTo(ChronoUnit.SECONDS));
+        instruction.setContentGzip(pageRenderer.renderGzip(InstructionPage.from(instruction)));
+        instruction.setRenderVersion(renderVersion);
+    }
+
+    /**
+     * Возвращает текущий снимок каталога, загружая его при первом обращении.
+     */
+    private InstructionCatalog currentCatalog() {
+        InstructionCatalog current = catalog.get();
+        if (current != null) {
+            return current;
+        }
+        synchronized (catalog) {
+            current = catalog.get();
+            if (current == null) {
+                current = loadCatalog();
+                catalog.set(current);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Перестраивает снимок каталога из БД и атомарно подменяет текущий.
+     */
+    private void refreshCatalog() {
+        synchronized (catalog) {
+            catalog.set(loadCatalog());
+        }
+    }
+
+    private InstructionCatalog loadCatalog() {
+        // Версия читается до снимка: изменение между двумя запросами приведет к лишней, но не пропущенной перезагрузке
+        catalogVersion = instructionRepository.findCatalogVersion();
+        InstructionCatalog loaded = new InstructionCatalog(instructionRepository.findAllSummaries());
+        logger.info("Каталог инструкций загружен: {} шт.", loaded.size());
+        return loaded;
+    }
+
+    private InstructionPage loadPage(Long id) {
+        return instructionRepository.findById(id).map(InstructionPage::from).orElse(null);
     }
-}
\ No newline at end of file
+}
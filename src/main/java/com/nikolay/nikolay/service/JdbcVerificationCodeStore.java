@@ -0,0 +1,128 @@
+package com.nikolay.nikolay.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Хранилище кодов подтверждения в общей БД: код, запрошенный через один экземпляр приложения,
+ * проверяется на любом другом. Коды хранятся в виде HMAC-SHA256(номер:код) на общем секрете,
+ * поэтому короткие цифровые коды нельзя подобрать по копии таблицы без секрета.
+ * Истекшие строки удаляются порциями по индексу срока действия.
+ */
+@Component
+@ConditionalOnProperty(name = "app.verification.codes.store", havingValue = "jdbc")
+public class JdbcVerificationCodeStore implements VerificationCodeStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(JdbcVerificationCodeStore.class);
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private static final String UPSERT_SQL =
+            "INSERT INTO verification_code (phone, code_hash, expires_at) VALUES (?, ?, ?) " +
+            "ON DUPLICATE KEY UPDATE code_hash = VALUES(code_hash), expires_at = VALUES(expires_at)";
+    private static final String SELECT_SQL =
+            "SELECT code_hash FROM verification_code WHERE phone = ? AND expires_at > ?";
+    private static final String DELETE_SQL =
+            "DELETE FROM verification_code WHERE phone = ?";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final SecretKeySpec secretKey;
+    private final long ttlMillis;
+    private final String purgeSql;
+    private final int purgeBatchSize;
+    private final Counter expired;
+
+    public JdbcVerificationCodeStore(JdbcTemplate jdbcTemplate,
+                                     @Value("${app.verification.codes.hash-secret:}") String secret,
+                                     @Value("${app.verification.codes.ttl:PT5M}") Duration ttl,
+                                     @Value("${app.verification.codes.purge-batch-size:1000}") int purgeBatchSize,
+                                     MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        if (secret == null || secret.isBlank()) {
+            // Со случайным ключом код, сохраненный одним экземпляром приложения, не прошел бы проверку на другом
+            throw new IllegalStateException(
+                    "app.verification.codes.hash-secret обязателен при app.verification.codes.store=jdbc");
+        }
+        this.secretKey = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM);
+        this.ttlMillis = ttl.toMillis();
+        this.purgeBatchSize = purgeBatchSize;
+        this.purgeSql = "DELETE FROM verification_code WHERE expires_at <= ? LIMIT " + purgeBatchSize;
+        this.expired = Counter.builder("verification.codes.evicted").tag("reason", "expired")
+                .description("Коды, удаленные по истечении срока")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Емкость таблицы не ограничивается: рост сдерживают лимит запросов и очистка истекших кодов.
+     */
+    @Override
+    public boolean hasCapacityFor(String phone) {
+        return true;
+    }
+
+    @Override
+    public boolean put(String phone, String code) {
+        jdbcTemplate.update(UPSERT_SQL, phone, hash(phone, code), System.currentTimeMillis() + ttlMillis);
+        return true;
+    }
+
+    @Override
+    public Match match(String phone, String code) {
+        List<byte[]> hashes = jdbcTemplate.query(SELECT_SQL, (rs, rowNum) -> rs.getBytes(1),
+                phone, System.currentTimeMillis());
+        if (hashes.isEmpty()) {
+            return Match.MISSING;
+        }
+        boolean valid = code != null && MessageDigest.isEqual(hashes.get(0), hash(phone, code));
+        return valid ? Match.VALID : Match.INVALID;
+    }
+
+    @Override
+    public boolean remove(String phone) {
+        return jdbcTemplate.update(DELETE_SQL, phone) > 0;
+    }
+
+    /**
+     * Удаляет истекшие коды порциями по purge-batch-size строк, чтобы не держать долгие блокировки.
+     * Запускается на каждом экземпляре; параллельные DELETE разных узлов безопасны.
+     */
+    @Scheduled(fixedDelayString = "${app.verification.codes.sweep-interval:PT30S}")
+    public void removeExpired() {
+        long now = System.currentTimeMillis();
+        int total = 0;
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update(purgeSql, now);
+            total += deleted;
+        } while (deleted >= purgeBatchSize);
+        if (total > 0) {
+            expired.increment(total);
+            logger.debug("Удалено истекших кодов подтверждения: {}", total);
+        }
+    }
+
+    private byte[] hash(String phone, String code) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(secretKey);
+            return mac.doFinal((phone + ":" + code).getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 недоступен", e);
+        }
+    }
+}
@@ -3,6 +3,9 @@ package com.nikolay.nikolay.service;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.nikolay.nikolay.util.PhoneNumbers;
+import org.apache.hc.client5.http.ConnectTimeoutException;
+import org.apache.hc.core5.http.ConnectionRequestTimeoutException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.InitializingBean;
@@ -12,15 +15,16 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestClientException; // Импортируем для обработки ошибок RestTemplate
 import org.springframework.web.client.RestTemplate;
 
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
 import java.security.SecureRandom;
-import java.time.Duration;
-import java.time.LocalDateTime;
-import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -32,13 +36,11 @@ import java.util.stream.IntStream;
 public class NovofonVerificationService implements InitializingBean {
 
     private static final Logger logger = LoggerFactory.getLogger(NovofonVerificationService.class);
-    // Время жизни кода подтверждения (5 минут)
-    private static final Duration CODE_TTL = Duration.ofMinutes(5);
     // ObjectMapper для работы с JSON (можно сделать бином Spring)
     private static final ObjectMapper objectMapper = new ObjectMapper();
 
-    // Потокобезопасное хранилище кодов верификации (Телефон -> Данные верификации)
-    private final Map<String, VerificationData> verificationCodes = new ConcurrentHashMap<>();
+    // Хранилище кодов верификации (Телефон -> код), в памяти или в БД (app.verification.codes.store)
+    private final VerificationCodeStore codeStore;
     // RestTemplate для выполнения HTTP-запросов к API Novofon
     private final RestTemplate restTemplate;
 
@@ -53,9 +55,10 @@ public class NovofonVerificationService implements InitializingBean {
     private int codeLength;
     // --- Конец параметров API ---
 
-    // Конструктор для внедрения RestTemplate
-    public NovofonVerificationService(RestTemplate restTemplate) {
+    // Конструктор для внедрения RestTemplate и хранилища кодов
+    public NovofonVerificationService(RestTemplate restTemplate, VerificationCodeStore codeStore) {
         this.restTemplate = restTemplate;
+        this.codeStore = codeStore;
     }
 
     /**
@@ -77,18 +80,28 @@ public class NovofonVerificationService implements InitializingBean {
 
     /**
      * Отправляет код верификации через голосовой звонок Novofon.
-     * Генерирует код, сохраняет его и инициирует звонок с TTS.
+     * Инициирует звонок с TTS и сохраняет код только после того, как Novofon подтвердил звонок:
+     * до этого код нельзя подтвердить, а при неудачной повторной отправке остается действовать прежний код.
+     * Метод блокирует поток на время запроса к Novofon; из обработчиков запросов его вызывает
+     * VerificationCallDispatcher в своем пуле потоков. Код генерируется один раз на отправку (generateCode)
+     * и передается во все попытки, чтобы повтор не подменял код, который пользователь мог уже услышать.
      * @param phone Номер телефона пользователя (должен быть предварительно нормализован).
-     * @throws RuntimeException если произошла ошибка при вызове API Novofon.
+     * @param code Код подтверждения для озвучивания.
+     * @throws VerificationCallException если звонок не удалось инициировать (с признаком, можно ли повторить).
      */
-    public void sendVerificationCode(String phone) {
-        String code = generateCode(); // Генерируем цифровой код
+    public void sendVerificationCode(String phone, String code) {
         String ttsMessage = formatTtsMessage(code); // Формируем сообщение для озвучки
         String requestId = UUID.randomUUID().toString(); // Уникальный ID запроса
         // Форматируем номер для API (обычно без '+')
         String formattedPhoneForApi = formatPhoneNumberForApi(phone);
 
-        logger.info("Подготовка звонка Novofon: номер={}, код={}, ID запроса={}", formattedPhoneForApi, code, requestId);
+        // Код в журнал не пишется: в хранилище он лежит только в виде хеша
+        logger.info("Подготовка звонка Novofon: номер={}, ID запроса={}", formattedPhoneForApi, requestId);
+
+        // Место в хранилище проверяется до звонка: при заполненном хранилище звонок не выполняется вовсе
+        if (!codeStore.hasCapacityFor(phone)) {
+            throw new VerificationCallException("Слишком много запросов кода подтверждения. Попробуйте позже.", false);
+        }
 
         // Создаем объекты для JSON-RPC запроса
         NovofonTtsMessage contactMessage = new NovofonTtsMessage("tts", ttsMessage);
@@ -117,29 +130,44 @@ public class NovofonVerificationService implements InitializingBean {
                             formattedPhoneForApi, body.getError().getCode(), body.getError().getMessage());
                     // Логгируем полный ответ для деталей
                     // logger.error("Полный ответ с ошибкой от Novofon: {}", objectMapper.writeValueAsString(body));
-                    throw new RuntimeException("Ошибка API Novofon: " + body.getError().getMessage());
+                    throw new VerificationCallException("Ошибка API Novofon: " + body.getError().getMessage(), false);
                 } else if (body.getResult() != null && body.getResult().getData() != null) {
                     // Звонок успешно инициирован
                     logger.info("Звонок Novofon на номер {} успешно инициирован. CallSessionID: {}",
                             formattedPhoneForApi, body.getResult().getData().getCallSessionId());
-                    // Сохраняем код и время его генерации
-                    verificationCodes.put(phone, new VerificationData(code, LocalDateTime.now()));
+                    if (!codeStore.put(phone, code)) {
+                        // Хранилище заполнилось за время звонка: услышанный код подтвердить не удастся
+                        throw new VerificationCallException("Слишком много запросов кода подтверждения. Попробуйте позже.", false);
+                    }
                 } else {
                     // Странный ответ без ошибки и результата
                     logger.error("Неожиданный успешный ответ от API Novofon без результата для номера {}. Ответ: {}", formattedPhoneForApi, response.getBody());
-                    throw new RuntimeException("Неожиданный ответ от API Novofon.");
+                    throw new VerificationCallException("Неожиданный ответ от API Novofon.", false);
                 }
             } else {
                 // Ошибка HTTP (не 2xx)
                 logger.error("Ошибка HTTP при запросе к API Novofon для номера {}: Статус={}", formattedPhoneForApi, response.getStatusCode());
-                throw new RuntimeException("Ошибка связи с API Novofon: Статус " + response.getStatusCodeValue());
+                throw new VerificationCallException("Ошибка связи с API Novofon: Статус " + response.getStatusCode().value(), false);
             }
+        } catch (VerificationCallException e) {
+            throw e;
+        } catch (HttpStatusCodeException e) {
+            // Запрос дошел до Novofon: звонок мог быть уже инициирован, автоматически не повторяем
+            logger.error("Ошибка HTTP при запросе к API Novofon для номера {}: Статус={}", formattedPhoneForApi, e.getStatusCode());
+            throw new VerificationCallException("Ошибка связи с сервисом верификации.", false, e);
+        } catch (ResourceAccessException e) {
+            // Повторять безопасно, только если запрос не был отправлен. Таймаут чтения или отмена по общему сроку
+            // означают, что Novofon мог уже позвонить, и повтор стал бы вторым платным звонком
+            boolean notSent = isRequestNotSent(e);
+            logger.error("Ошибка соединения с API Novofon для номера {} (запрос {}): {}", formattedPhoneForApi,
+                    notSent ? "не отправлен" : "мог быть обработан", e.getMessage());
+            throw new VerificationCallException("Ошибка связи с сервисом верификации.", notSent, e);
         } catch (RestClientException e) {
             logger.error("Ошибка RestTemplate при вызове API Novofon для номера {}: {}", formattedPhoneForApi, e.getMessage());
-            throw new RuntimeException("Ошибка связи с сервисом верификации.", e);
+            throw new VerificationCallException("Ошибка связи с сервисом верификации.", false, e);
         } catch (Exception e) { // Ловим другие возможные ошибки (например, JSON)
             logger.error("Непредвиденная ошибка при отправке звонка верификации Novofon на {}: {}", formattedPhoneForApi, e.getMessage(), e);
-            throw new RuntimeException("Внутренняя ошибка сервиса верификации.", e);
+            throw new VerificationCallException("Внутренняя ошибка сервиса верификации.", false, e);
         }
     }
 
@@ -150,29 +178,22 @@ public class NovofonVerificationService implements InitializingBean {
      * @return `true`, если код верный и не истек срок действия, иначе `false`.
      */
     public boolean verifyCode(String phone, String code) {
-        VerificationData data = verificationCodes.get(phone);
-
-        // Проверка наличия кода
-        if (data == null) {
+        // Истекший код хранилище считает отсутствующим
+        VerificationCodeStore.Match match = codeStore.match(phone, code);
+        if (match == VerificationCodeStore.Match.MISSING) {
             logger.warn("Код верификации для номера {} не найден (возможно, истек или не запрашивался).", phone);
             return false;
         }
 
-        // Проверка времени жизни кода
-        if (LocalDateTime.now().isAfter(data.timestamp.plus(CODE_TTL))) {
-            logger.warn("Истек срок действия кода верификации для номера {}. Время генерации: {}", phone, data.timestamp);
-            verificationCodes.remove(phone); // Удаляем истекший код
-            return false;
-        }
-
         // Сравнение кодов
-        boolean isValid = data.code.equals(code);
+        boolean isValid = match == VerificationCodeStore.Match.VALID;
         if (isValid) {
             logger.info("Код верификации для номера {} успешно подтвержден.", phone);
-            // verificationCodes.remove(phone); // Удаляем код сразу после успешной проверки
+            // codeStore.remove(phone); // Удаляем код сразу после успешной проверки
             // Не удаляем здесь, так как clearCode вызывается отдельно в контроллере
         } else {
-            logger.warn("Введен неверный код верификации для номера {}. Ожидался: {}, Получен: {}", phone, data.code, code);
+            // Ни ожидаемый, ни введенный код не логируются: введенный может отличаться от верного одной цифрой
+            logger.warn("Введен неверный код верификации для номера {}.", phone);
         }
         return isValid;
     }
@@ -183,19 +204,35 @@ public class NovofonVerificationService implements InitializingBean {
      * @param phone Номер телефона (нормализованный).
      */
     public void clearCode(String phone) {
-        VerificationData removedData = verificationCodes.remove(phone);
-        if (removedData != null) {
+        if (codeStore.remove(phone)) {
             logger.info("Удален код верификации для номера: {}", phone);
         } else {
             logger.debug("Попытка удаления несуществующего кода верификации для номера: {}", phone);
         }
     }
 
+    /**
+     * Ошибки, при которых запрос к Novofon заведомо не был отправлен: не удалось установить соединение
+     * (отказ, таймаут соединения, неизвестный хост) или дождаться свободного соединения в пуле.
+     */
+    private static boolean isRequestNotSent(ResourceAccessException e) {
+        for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException
+                    || cause instanceof NoRouteToHostException
+                    || cause instanceof UnknownHostException
+                    || cause instanceof ConnectTimeoutException
+                    || cause instanceof ConnectionRequestTimeoutException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Генерирует случайный цифровой код указанной длины.
      * @return Строка с цифровым кодом.
      */
-    private String generateCode() {
+    public String generateCode() {
         if (codeLength <= 0) {
             throw new IllegalArgumentException("Длина кода должна быть положительным числом.");
         }
@@ -227,28 +264,12 @@ public class NovofonVerificationService implements InitializingBean {
      * @return Номер телефона в формате E.164 без '+'.
      */
     private String formatPhoneNumberForApi(String phone) {
-        if (phone == null || !phone.startsWith("+")) {
-            logger.warn("Некорректный формат телефона для API Novofon: {}", phone);
-            // Возвращаем как есть или выбрасываем исключение
-            return phone != null ? phone.replaceAll("[^\\d]", "") : "";
-        }
-        // Удаляем '+' и все нецифровые символы на всякий случай
-        return phone.substring(1).replaceAll("[^\\d]", "");
+        // Отбрасываем '+' и любые другие нецифровые символы
+        return PhoneNumbers.digitsOnly(phone);
     }
 
     // --- Внутренние классы для (де)сериализации JSON ---
 
-    // Класс для хранения кода и времени его создания
-    private static class VerificationData {
-        final String code;
-        final LocalDateTime timestamp;
-
-        VerificationData(String code, LocalDateTime timestamp) {
-            this.code = code;
-            this.timestamp = timestamp;
-        }
-    }
-
     // Классы запроса и ответа Novofon JSON-RPC (остаются без изменений)
     @JsonInclude(JsonInclude.Include.NON_NULL)
     private static class NovofonJsonRpcRequest {
@@ -0,0 +1,151 @@
+package com.nikolay.nikolay.service;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseCookie;
+import org.springframework.stereotype.Service;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Optional;
+
+/**
+ * Хранит QR-код, по которому пришел неавторизованный пользователь, в подписанной cookie вместо HTTP-сессии.
+ * Переход по QR-коду не создает сессию в БД; она появляется только когда пользователь начинает регистрацию или входит.
+ * Формат значения: base64url(код).срок_действия_в_секундах.base64url(HMAC-SHA256).
+ */
+@Service
+public class PendingReferralService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PendingReferralService.class);
+
+    static final String COOKIE_NAME = "pending_ref";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private final SecretKeySpec secretKey;
+    private final Duration ttl;
+    private final boolean secure;
+
+    public PendingReferralService(
+            @Value("${app.referral-cookie.secret:}") String secret,
+            @Value("${app.referral-cookie.ttl:PT30M}") Duration ttl,
+            @Value("${server.servlet.session.cookie.secure:true}") boolean secure,
+            @Value("${app.verification.codes.store:memory}") String codeStore) {
+        byte[] keyBytes;
+        if ((secret == null || secret.isBlank()) && "jdbc".equals(codeStore)) {
+            // store=jdbc означает несколько экземпляров: cookie со случайным ключом не прошла бы проверку на другом узле
+            throw new IllegalStateException(
+                    "app.referral-cookie.secret обязателен при app.verification.codes.store=jdbc");
+        }
+        if (secret == null || secret.isBlank()) {
+            // Без общего секрета cookie, выданная одним экземпляром приложения, не пройдет проверку на другом
+            logger.warn("app.referral-cookie.secret не задан, используется случайный ключ до перезапуска приложения");
+            keyBytes = new byte[32];
+            new SecureRandom().nextBytes(keyBytes);
+        } else {
+            keyBytes = secret.getBytes(StandardCharsets.UTF_8);
+        }
+        this.secretKey = new SecretKeySpec(keyBytes, HMAC_ALGORITHM);
+        this.ttl = ttl;
+        this.secure = secure;
+    }
+
+    /**
+     * Запоминает QR-код в подписанной cookie. Код должен быть предварительно проверен через QrCodeResolver.
+     */
+    public void remember(HttpServletResponse response, String qrCode) {
+        long expiresAt = Instant.now().plus(ttl).getEpochSecond();
+        String payload = ENCODER.encodeToString(qrCode.getBytes(StandardCharsets.UTF_8)) + "." + expiresAt;
+        writeCookie(response, payload + "." + sign(payload), ttl);
+        logger.debug("QR-код {} сохранен в cookie до {}", qrCode, expiresAt);
+    }
+
+    /**
+     * Возвращает QR-код из cookie, если подпись верна и срок действия не истек.
+     */
+    public Optional<String> read(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies == null) {
+            return Optional.empty();
+        }
+        for (Cookie cookie : cookies) {
+            if (COOKIE_NAME.equals(cookie.getName())) {
+                return parse(cookie.getValue());
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Удаляет cookie после того, как QR-код использован.
+     */
+    public void clear(HttpServletResponse response) {
+        writeCookie(response, "", Duration.ZERO);
+    }
+
+    private Optional<String> parse(String value) {
+        if (value == null) {
+            return Optional.empty();
+        }
+        int signatureDot = value.lastIndexOf('.');
+        int expiryDot = signatureDot > 0 ? value.lastIndexOf('.', signatureDot - 1) : -1;
+        if (expiryDot <= 0) {
+            return Optional.empty();
+        }
+
+        String payload = value.substring(0, signatureDot);
+        byte[] expected = sign(payload).getBytes(StandardCharsets.US_ASCII);
+        byte[] actual = value.substring(signatureDot + 1).getBytes(StandardCharsets.US_ASCII);
+        if (!MessageDigest.isEqual(expected, actual)) {
+            logger.warn("Cookie {} с неверной подписью отклонена", COOKIE_NAME);
+            return Optional.empty();
+        }
+
+        try {
+            long expiresAt = Long.parseLong(value.substring(expiryDot + 1, signatureDot));
+            if (Instant.now().getEpochSecond() > expiresAt) {
+                return Optional.empty();
+            }
+            String qrCode = new String(DECODER.decode(value.substring(0, expiryDot)), StandardCharsets.UTF_8);
+            return qrCode.isEmpty() ? Optional.empty() : Optional.of(qrCode);
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    private String sign(String payload) {
+        try {
+            // Mac не потокобезопасен, поэтому создается на каждый вызов
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(secretKey);
+            return ENCODER.encodeToString(mac.doFinal(payload.getBytes(StandardCharsets.US_ASCII)));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Не удалось вычислить подпись cookie", e);
+        }
+    }
+
+    private void writeCookie(HttpServletResponse response, String value, Duration maxAge) {
+        ResponseCookie cookie = ResponseCookie.from(COOKIE_NAME, value)
+                .path("/")
+                .maxAge(maxAge)
+                .httpOnly(true)
+                .secure(secure)
+                .sameSite("Lax")
+                .build();
+        response.addHeader(HttpHeaders.SET_COOKIE, cookie.toString());
+    }
+}
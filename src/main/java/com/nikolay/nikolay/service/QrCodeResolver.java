@@ -0,0 +1,87 @@
+package com.nikolay.nikolay.service;
+
+import com.nikolay.nikolay.dto.InstructionSummary;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.util.Optional;
+
+/**
+ * Разрешение QR-кода (реферального кода) в инструкцию.
+ * Единая точка для /ref, регистрации и входа через Telegram.
+ *
+ * Положительные и отрицательные ответы берутся из снимка каталога инструкций: снимок содержит все QR-коды,
+ * поэтому неизвестный код не приводит к запросу в БД, а при изменении или удалении инструкции
+ * каталог пересобирается и ответы резолвера меняются вместе с ним.
+ * Заведомо некорректные коды (пустые, слишком длинные, с управляющими символами) отсекаются до обращения к каталогу.
+ */
+@Service
+public class QrCodeResolver {
+
+    private static final Logger logger = LoggerFactory.getLogger(QrCodeResolver.class);
+
+    // Максимальная длина QR-кода (соответствует длине колонки qr_code)
+    static final int MAX_CODE_LENGTH = 255;
+
+    private final InstructionService instructionService;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter rejected;
+
+    public QrCodeResolver(InstructionService instructionService, MeterRegistry meterRegistry) {
+        this.instructionService = instructionService;
+        this.hits = meterRegistry.counter("qr.resolve", "result", "hit");
+        this.misses = meterRegistry.counter("qr.resolve", "result", "miss");
+        this.rejected = meterRegistry.counter("qr.resolve", "result", "rejected");
+        Gauge.builder("qr.resolve.hit.ratio", this, QrCodeResolver::hitRatio)
+                .description("Доля запросов с QR-кодом, разрешенных в существующую инструкцию")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Разрешает QR-код в инструкцию.
+     * @param code QR-код из запроса (пробелы по краям игнорируются).
+     * @return Optional с InstructionSummary или Optional.empty(), если код неизвестен или некорректен.
+     */
+    public Optional<InstructionSummary> resolve(String code) {
+        String trimmed = code != null ? code.trim() : null;
+        if (!isWellFormed(trimmed)) {
+            rejected.increment();
+            logger.debug("Отклонен некорректный QR-код длиной {}", code != null ? code.length() : 0);
+            return Optional.empty();
+        }
+
+        Optional<InstructionSummary> instruction = instructionService.findByQrCode(trimmed);
+        if (instruction.isPresent()) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return instruction;
+    }
+
+    /**
+     * Проверяет, может ли строка вообще быть QR-кодом инструкции.
+     */
+    static boolean isWellFormed(String code) {
+        if (code == null || code.isEmpty() || code.length() > MAX_CODE_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < code.length(); i++) {
+            if (Character.isISOControl(code.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private double hitRatio() {
+        double total = hits.count() + misses.count() + rejected.count();
+        return total > 0 ? hits.count() / total : 0.0;
+    }
+}
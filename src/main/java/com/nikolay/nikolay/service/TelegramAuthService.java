@@ -12,7 +12,6 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.web.authentication.WebAuthenticationDetails;
 import org.springframework.stereotype.Service;
 
@@ -29,7 +28,7 @@ public class TelegramAuthService {
     private static final Logger logger = LoggerFactory.getLogger(TelegramAuthService.class);
     private static final long AUTH_EXPIRATION_TIME_SECONDS = 86400; // 24 часа
 
-    private final UserDetailsService userDetailsService;
+    private final CustomUserDetailsService userDetailsService;
 
     @Autowired
     private HttpServletRequest request;
@@ -37,7 +36,7 @@ public class TelegramAuthService {
     @Value("${telegram.bot.token}")
     private String botToken;
 
-    public TelegramAuthService(UserDetailsService userDetailsService) {
+    public TelegramAuthService(CustomUserDetailsService userDetailsService) {
         this.userDetailsService = userDetailsService;
     }
 
@@ -126,7 +125,7 @@ public class TelegramAuthService {
 
         try {
             // Загружаем детали пользователя и создаем объект аутентификации
-            UserDetails userDetails = userDetailsService.loadUserByUsername(user.getPhone());
+            UserDetails userDetails = userDetailsService.loadUserByUsernameCached(user.getPhone());
             UsernamePasswordAuthenticationToken authentication =
                     new UsernamePasswordAuthenticationToken(userDetails, null, userDetails.getAuthorities());
 
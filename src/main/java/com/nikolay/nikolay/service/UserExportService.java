@@ -0,0 +1,110 @@
+package com.nikolay.nikolay.service;
+
+import com.nikolay.nikolay.model.User;
+import com.nikolay.nikolay.repository.UserRepository;
+import jakarta.persistence.EntityManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+
+/**
+ * Выгрузка пользователей в CSV (разделитель «;», все поля в кавычках — формат, привычный для Excel).
+ * Пользователи читаются потоком из курсора и сразу отсоединяются от контекста сохранения,
+ * поэтому потребление памяти не зависит от числа пользователей.
+ */
+@Service
+public class UserExportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserExportService.class);
+
+    // Через сколько строк сбрасывать буфер в выходной поток
+    static final int FLUSH_EVERY_ROWS = 1000;
+
+    private static final char DELIMITER = ';';
+    private static final String HEADER = "ID;Телефон;Telegram;Реферальная ссылка;Роль";
+
+    private final UserRepository userRepository;
+    private final EntityManager entityManager;
+
+    public UserExportService(UserRepository userRepository, EntityManager entityManager) {
+        this.userRepository = userRepository;
+        this.entityManager = entityManager;
+    }
+
+    /**
+     * Записывает всех пользователей в CSV.
+     * Writer должен быть буферизованным: метод сбрасывает его только каждые FLUSH_EVERY_ROWS строк и в конце.
+     * @param writer Буферизованный writer, в который пишется CSV (BOM и заголовок включаются).
+     * @return Количество выгруженных пользователей.
+     */
+    @Transactional(readOnly = true)
+    public long writeCsv(Writer writer) throws IOException {
+        return writeCsv(writer, rows -> { });
+    }
+
+    /**
+     * Записывает всех пользователей в CSV, сообщая о ходе выгрузки.
+     * @param writer Буферизованный writer, в который пишется CSV.
+     * @param progress Получает число записанных строк при каждом сбросе буфера и в конце.
+     * @return Количество выгруженных пользователей.
+     */
+    @Transactional(readOnly = true)
+    public long writeCsv(Writer writer, LongConsumer progress) throws IOException {
+        // BOM для корректного отображения кириллицы в Excel
+        writer.write('\uFEFF');
+        writer.write(HEADER);
+        writer.write("\r\n");
+
+        long rows = 0;
+        StringBuilder line = new StringBuilder(128);
+        try (Stream<User> users = userRepository.streamAllOrderById()) {
+            Iterator<User> iterator = users.iterator();
+            while (iterator.hasNext()) {
+                User user = iterator.next();
+                line.setLength(0);
+                appendField(line, String.valueOf(user.getId())).append(DELIMITER);
+                appendField(line, user.getPhone()).append(DELIMITER);
+                appendField(line, user.getTelegram()).append(DELIMITER);
+                appendField(line, user.getReferralLink()).append(DELIMITER);
+                appendField(line, user.getRole() != null ? user.getRole().name() : null).append("\r\n");
+                // Отсоединяем сущность сразу после записи, чтобы контекст сохранения не рос
+                entityManager.detach(user);
+
+                writer.append(line);
+                if (++rows % FLUSH_EVERY_ROWS == 0) {
+                    writer.flush();
+                    progress.accept(rows);
+                }
+            }
+        }
+        writer.flush();
+        progress.accept(rows);
+
+        logger.info("Выгружено пользователей в CSV: {}", rows);
+        return rows;
+    }
+
+    /**
+     * Добавляет значение в кавычках; кавычки внутри значения удваиваются, null записывается как пустое поле.
+     */
+    static StringBuilder appendField(StringBuilder line, String value) {
+        line.append('"');
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    line.append('"');
+                }
+                line.append(c);
+            }
+        }
+        return line.append('"');
+    }
+}
@@ -0,0 +1,373 @@
+package com.nikolay.nikolay.service;
+
+import com.nikolay.nikolay.dto.InstructionSummary;
+import com.nikolay.nikolay.dto.UserImportReport;
+import com.nikolay.nikolay.enums.Role;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Массовый импорт пользователей из CSV (выгрузки дилеров).
+ * Формат строки: телефон;роль;QR-коды через запятую. Роль и QR-коды необязательны, первая строка может быть заголовком.
+ * Файл читается построчно, запись идет JDBC-пакетами в обход Hibernate: у User генерация ID через IDENTITY,
+ * при которой Hibernate не умеет пакетную вставку.
+ */
+@Service
+public class UserImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(UserImportService.class);
+
+    static final int BATCH_SIZE = 1000;
+    static final int MAX_REPORTED_ERRORS = 500;
+    private static final char DELIMITER = ';';
+
+    private static final String INSERT_USER_SQL = "INSERT IGNORE INTO users (phone, password, referral_link, role, phone_verified) " +
+            "VALUES (?, ?, ?, ?, ?)";
+    private static final String GRANT_ACCESS_SQL = "INSERT IGNORE INTO user_instruction_access (user_id, instruction_id, granted_at) " +
+            "VALUES (?, ?, ?)";
+    private static final String FIND_IDS_SQL = "SELECT id, phone FROM users WHERE phone IN (:phones)";
+    private static final String FIND_IDS_WITH_PASSWORD_SQL = "SELECT id, phone, password FROM users WHERE phone IN (:phones)";
+
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final UserService userService;
+    private final InstructionService instructionService;
+    private final InstructionAccessService instructionAccessService;
+    private final PasswordEncoder passwordEncoder;
+
+    public UserImportService(NamedParameterJdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                             UserService userService, InstructionService instructionService,
+                             InstructionAccessService instructionAccessService, PasswordEncoder passwordEncoder) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.userService = userService;
+        this.instructionService = instructionService;
+        this.instructionAccessService = instructionAccessService;
+        this.passwordEncoder = passwordEncoder;
+    }
+
+    /**
+     * Импортирует пользователей из CSV в кодировке UTF-8.
+     * Строки с ошибками пропускаются и попадают в отчет; каждый пакет фиксируется в отдельной транзакции.
+     * Существующие пользователи не изменяются, им только выдаются доступы по QR-кодам из файла.
+     * @param in Поток с содержимым файла.
+     * @return Отчет об импорте.
+     */
+    public UserImportReport importCsv(InputStream in) throws IOException {
+        long started = System.nanoTime();
+        ImportProgress progress = new ImportProgress();
+
+        // Импортированные пользователи входят через подтверждение по телефону, пароль им неизвестен.
+        // Один хеш случайного секрета на весь импорт: BCrypt на каждую строку не дал бы импортировать тысячи строк в секунду
+        String passwordHash = passwordEncoder.encode(randomSecret());
+
+        List<ImportRow> batch = new ArrayList<>(BATCH_SIZE);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber == 1 && !line.isEmpty() && line.charAt(0) == '\uFEFF') {
+                    line = line.substring(1); // BOM из Excel
+                }
+                if (line.isBlank()) {
+                    continue;
+                }
+                List<String> fields = splitFields(line);
+                if (lineNumber == 1 && isHeader(fields.get(0))) {
+                    continue;
+                }
+
+                progress.totalRows++;
+                ImportRow row = parseRow(lineNumber, fields, progress);
+                if (row != null) {
+                    batch.add(row);
+                    if (batch.size() == BATCH_SIZE) {
+                        writeBatch(batch, passwordHash, progress);
+                        batch.clear();
+                    }
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(batch, passwordHash, progress);
+        }
+
+        long durationMs = (System.nanoTime() - started) / 1_000_000;
+        UserImportReport report = new UserImportReport(progress.totalRows, progress.created, progress.existing,
+                progress.accessGranted, progress.errorCount, progress.errors, durationMs);
+        logger.info("Импорт пользователей: строк {}, создано {}, существующих {}, доступов {}, ошибок {} за {} мс ({} строк/с)",
+                report.getTotalRows(), report.getCreated(), report.getExisting(), report.getAccessGranted(),
+                report.getErrorCount(), durationMs, report.getRowsPerSecond());
+        return report;
+    }
+
+    /**
+     * Проверяет и разбирает строку. При ошибке регистрирует ее в отчете и возвращает null.
+     */
+    private ImportRow parseRow(int lineNumber, List<String> fields, ImportProgress progress) {
+        String rawPhone = fields.get(0);
+        String phone = userService.normalizePhoneNumber(rawPhone);
+        if (phone == null) {
+            progress.addError(lineNumber, "Некорректный номер телефона: " + rawPhone);
+            return null;
+        }
+
+        Role role = Role.USER;
+        String rawRole = fields.size() > 1 ? fields.get(1) : "";
+        if (!rawRole.isEmpty()) {
+            try {
+                role = Role.valueOf(rawRole.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                progress.addError(lineNumber, "Неизвестная роль: " + rawRole);
+                return null;
+            }
+        }
+
+        List<String> qrCodes = new ArrayList<>();
+        List<Long> instructionIds = new ArrayList<>();
+        String rawCodes = fields.size() > 2 ? fields.get(2) : "";
+        for (String code : rawCodes.split(",")) {
+            String trimmed = code.trim();
+            if (trimmed.isEmpty()) {
+                continue;
+            }
+            Long instructionId = progress.resolveInstructionId(trimmed, instructionService);
+            if (instructionId == null) {
+                progress.addError(lineNumber, "QR-код не найден: " + trimmed);
+                return null;
+            }
+            qrCodes.add(trimmed);
+            instructionIds.add(instructionId);
+        }
+
+        if (!progress.seenPhones.add(phone)) {
+            progress.addError(lineNumber, "Телефон " + phone + " уже встречался в файле");
+            return null;
+        }
+
+        return new ImportRow(phone, role, qrCodes.isEmpty() ? "" : qrCodes.get(0), instructionIds);
+    }
+
+    /**
+     * Записывает пакет строк в одной транзакции: вставка новых пользователей, затем выдача доступов.
+     * Наборы доступа в кэше сбрасываются после фиксации транзакции.
+     */
+    private void writeBatch(List<ImportRow> batch, String passwordHash, ImportProgress progress) {
+        Set<Long> touchedUserIds = transactionTemplate.execute(status -> {
+            Map<String, Long> idsByPhone = findIdsByPhone(batch);
+
+            List<ImportRow> newRows = new ArrayList<>(batch.size());
+            for (ImportRow row : batch) {
+                if (!idsByPhone.containsKey(row.phone)) {
+                    newRows.add(row);
+                }
+            }
+            progress.existing += batch.size() - newRows.size();
+
+            if (!newRows.isEmpty()) {
+                jdbcTemplate.getJdbcOperations().batchUpdate(INSERT_USER_SQL, newRows, newRows.size(), (ps, row) -> {
+                    ps.setString(1, row.phone);
+                    ps.setString(2, passwordHash);
+                    ps.setString(3, row.referralLink);
+                    ps.setString(4, row.role.name());
+                    ps.setBoolean(5, false);
+                });
+                // ID вставленных строк; телефон, занятый параллельной регистрацией, тоже найдется здесь.
+                // Вставленные этим импортом строки узнаются по общему хешу пароля импорта: счетчики INSERT IGNORE
+                // при rewriteBatchedStatements драйвер не сообщает
+                int created = findInsertedIds(newRows, passwordHash, idsByPhone);
+                progress.created += created;
+                progress.existing += newRows.size() - created;
+            }
+
+            List<long[]> grants = new ArrayList<>();
+            Set<Long> userIds = new HashSet<>();
+            for (ImportRow row : batch) {
+                Long userId = idsByPhone.get(row.phone);
+                if (userId == null) {
+                    continue;
+                }
+                for (Long instructionId : row.instructionIds) {
+                    grants.add(new long[]{userId, instructionId});
+                    userIds.add(userId);
+                }
+            }
+            if (!grants.isEmpty()) {
+                Timestamp grantedAt = Timestamp.valueOf(LocalDateTime.now());
+                int[][] counts = jdbcTemplate.getJdbcOperations().batchUpdate(GRANT_ACCESS_SQL, grants, grants.size(), (ps, grant) -> {
+                    ps.setLong(1, grant[0]);
+                    ps.setLong(2, grant[1]);
+                    ps.setTimestamp(3, grantedAt);
+                });
+                progress.accessGranted += countGranted(counts, grants.size());
+            }
+            return userIds;
+        });
+
+        if (touchedUserIds != null) {
+            touchedUserIds.forEach(instructionAccessService::invalidateAccessSet);
+        }
+        logger.debug("Записан пакет импорта из {} строк", batch.size());
+    }
+
+    private Map<String, Long> findIdsByPhone(List<ImportRow> rows) {
+        List<String> phones = new ArrayList<>(rows.size());
+        for (ImportRow row : rows) {
+            phones.add(row.phone);
+        }
+        Map<String, Long> idsByPhone = new HashMap<>(rows.size() * 2);
+        jdbcTemplate.query(FIND_IDS_SQL, Map.of("phones", phones),
+                (RowCallbackHandler) rs -> idsByPhone.put(rs.getString("phone"), rs.getLong("id")));
+        return idsByPhone;
+    }
+
+    /**
+     * Дополняет idsByPhone ID пользователей с телефонами из rows.
+     * @return Сколько из них создано этим импортом (хеш пароля совпадает с хешем импорта).
+     */
+    private int findInsertedIds(List<ImportRow> rows, String passwordHash, Map<String, Long> idsByPhone) {
+        List<String> phones = new ArrayList<>(rows.size());
+        for (ImportRow row : rows) {
+            phones.add(row.phone);
+        }
+        int[] inserted = {0};
+        jdbcTemplate.query(FIND_IDS_WITH_PASSWORD_SQL, Map.of("phones", phones), (RowCallbackHandler) rs -> {
+            idsByPhone.put(rs.getString("phone"), rs.getLong("id"));
+            if (passwordHash.equals(rs.getString("password"))) {
+                inserted[0]++;
+            }
+        });
+        return inserted[0];
+    }
+
+    /**
+     * Считает добавленные доступы. При переписывании пакета в один INSERT (rewriteBatchedStatements)
+     * драйвер MySQL не сообщает счетчики по строкам, тогда в отчет попадает число попыток выдачи.
+     */
+    private static int countGranted(int[][] counts, int attempted) {
+        int granted = 0;
+        for (int[] chunk : counts) {
+            for (int count : chunk) {
+                if (count < 0) {
+                    return attempted;
+                }
+                granted += count;
+            }
+        }
+        return granted;
+    }
+
+    /**
+     * Разбивает строку CSV на поля. Поддерживаются поля в кавычках (в т.ч. из выгрузки /admin/users/export)
+     * и удвоенные кавычки внутри них; переносы строк внутри полей не поддерживаются.
+     */
+    static List<String> splitFields(String line) {
+        List<String> fields = new ArrayList<>(3);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == DELIMITER) {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+    private static boolean isHeader(String firstField) {
+        String value = firstField.toLowerCase(Locale.ROOT);
+        return value.equals("phone") || value.equals("телефон");
+    }
+
+    private static String randomSecret() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    /**
+     * Проверенная строка файла, готовая к записи.
+     */
+    private static final class ImportRow {
+        private final String phone;
+        private final Role role;
+        private final String referralLink;
+        private final List<Long> instructionIds;
+
+        private ImportRow(String phone, Role role, String referralLink, List<Long> instructionIds) {
+            this.phone = phone;
+            this.role = role;
+            this.referralLink = referralLink;
+            this.instructionIds = instructionIds;
+        }
+    }
+
+    /**
+     * Счетчики и состояние одного импорта.
+     */
+    private static final class ImportProgress {
+        private int totalRows;
+        private int created;
+        private int existing;
+        private int accessGranted;
+        private int errorCount;
+        private final List<UserImportReport.RowError> errors = new ArrayList<>();
+        private final Set<String> seenPhones = new HashSet<>();
+        // QR-код -> ID инструкции; каждый код ищется в каталоге один раз за импорт
+        private final Map<String, Optional<Long>> instructionIds = new HashMap<>();
+
+        private void addError(int line, String message) {
+            errorCount++;
+            if (errors.size() < MAX_REPORTED_ERRORS) {
+                errors.add(new UserImportReport.RowError(line, message));
+            }
+        }
+
+        private Long resolveInstructionId(String qrCode, InstructionService instructionService) {
+            return instructionIds.computeIfAbsent(qrCode,
+                            code -> instructionService.findByQrCode(code).map(InstructionSummary::getId))
+                    .orElse(null);
+        }
+    }
+}
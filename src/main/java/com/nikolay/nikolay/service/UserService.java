@@ -1,17 +1,22 @@
 package com.nikolay.nikolay.service;
 
+import com.nikolay.nikolay.dto.InstructionSummary;
+import com.nikolay.nikolay.dto.KeysetPage;
+import com.nikolay.nikolay.dto.UserSummary;
+import com.nikolay.nikolay.enums.Role;
 import com.nikolay.nikolay.model.User;
 import com.nikolay.nikolay.repository.UserRepository;
-import jakarta.persistence.EntityManager;
-import jakarta.persistence.PersistenceContext;
+import com.nikolay.nikolay.security.CalibratedBCryptPasswordEncoder;
+import com.nikolay.nikolay.util.AfterCommit;
+import com.nikolay.nikolay.util.PhoneNumbers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.security.core.userdetails.UserCache;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
@@ -23,23 +28,64 @@ import java.util.Optional;
 public class UserService {
 
     private static final Logger logger = LoggerFactory.getLogger(UserService.class);
-    private static final String REFERRAL_LINK_SEPARATOR = ",";
 
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
+    private final QrCodeResolver qrCodeResolver;
+    private final InstructionAccessService instructionAccessService;
+    private final UserCache userCache;
 
-    @PersistenceContext
-    private EntityManager entityManager;
-
-    public UserService(UserRepository userRepository, PasswordEncoder passwordEncoder) {
+    public UserService(UserRepository userRepository, PasswordEncoder passwordEncoder,
+                       QrCodeResolver qrCodeResolver, InstructionAccessService instructionAccessService,
+                       UserCache userCache) {
         this.userRepository = userRepository;
         this.passwordEncoder = passwordEncoder;
+        this.qrCodeResolver = qrCodeResolver;
+        this.instructionAccessService = instructionAccessService;
+        this.userCache = userCache;
     }
 
     public List<User> getAllUsers() {
         return userRepository.findAll();
     }
 
+    /**
+     * Возвращает страницу пользователей для админки (keyset-пагинация по ID).
+     * Выбирается на одну запись больше размера страницы, чтобы без COUNT-запроса определить наличие следующей.
+     * @param afterId Курсор — ID последнего пользователя предыдущей страницы (null для первой страницы).
+     * @param phonePrefix Префикс телефона (посторонние символы отбрасываются) или null.
+     * @param hasTelegram Фильтр по наличию привязанного Telegram или null.
+     * @param role Фильтр по роли или null.
+     * @param size Запрошенный размер страницы (ограничивается KeysetPage.MAX_SIZE).
+     * @return Страница пользователей.
+     */
+    public KeysetPage<User> getUsersPage(Long afterId, String phonePrefix, Boolean hasTelegram, Role role, Integer size) {
+        int pageSize = KeysetPage.clampSize(size);
+        long cursor = afterId != null && afterId > 0 ? afterId : 0L;
+        List<User> fetched = userRepository.findPageAfter(cursor, normalizePhonePrefix(phonePrefix), hasTelegram, role,
+                PageRequest.ofSize(pageSize + 1));
+        return KeysetPage.of(fetched, pageSize, User::getId);
+    }
+
+    /**
+     * Готовит префикс телефона для фильтра: оставляет только цифры и ведущий '+'.
+     * Телефоны хранятся в формате +7XXXXXXXXXX, поэтому префикс без '+' дополняется им.
+     * @return Префикс для LIKE-запроса или null, если фильтр не задан.
+     */
+    private String normalizePhonePrefix(String phonePrefix) {
+        if (phonePrefix == null) {
+            return null;
+        }
+        StringBuilder digits = new StringBuilder(phonePrefix.length() + 1).append('+');
+        for (int i = 0; i < phonePrefix.length(); i++) {
+            char c = phonePrefix.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        return digits.length() > 1 ? digits.toString() : null;
+    }
+
     public Optional<User> findByTelegramId(Long telegramId) {
         // Добавим проверку на null ID
         if (telegramId == null) {
@@ -71,6 +117,21 @@ public class UserService {
         return userRepository.findByPhone(normalizedPhone);
     }
 
+    /**
+     * Облегченный поиск пользователя по телефону (проекция UserSummary).
+     * Используется для определения текущего пользователя в контроллерах.
+     * @param phone Телефон в любом допустимом формате.
+     * @return Optional с UserSummary или Optional.empty().
+     */
+    public Optional<UserSummary> findSummaryByPhone(String phone) {
+        String normalizedPhone = normalizePhoneNumber(phone);
+        if (normalizedPhone == null) {
+            logger.warn("Попытка поиска пользователя по некорректному номеру: {}", phone);
+            return Optional.empty();
+        }
+        return userRepository.findSummaryByPhone(normalizedPhone);
+    }
+
     @Transactional
     public User registerUser(User user) {
         if (user == null) {
@@ -95,44 +156,33 @@ public class UserService {
 
 
         // Хеширование пароля (только если он не null, не пустой и еще не хеширован)
-        if (user.getPassword() != null && !user.getPassword().isBlank() && !user.getPassword().startsWith("$2a$")) {
+        if (user.getPassword() != null && !user.getPassword().isBlank()
+                && !CalibratedBCryptPasswordEncoder.isBcryptHash(user.getPassword())) {
             logger.debug("Хеширование пароля для пользователя с телефоном: {}", user.getPhone());
             user.setPassword(passwordEncoder.encode(user.getPassword()));
         }
 
+        // Телефон до изменения: запись в кэше пользователей хранится под ним, и после смены номера ее тоже нужно сбросить
+        String previousPhone = user.getId() != null ? userRepository.findStoredPhoneById(user.getId()).orElse(null) : null;
+
         try {
-            // Используем saveAndFlush для немедленной синхронизации с БД
+            // Одна инструкция: INSERT для нового пользователя или UPDATE для существующего.
+            // Число затронутых строк при UPDATE проверяет сам Hibernate (при 0 строк — исключение),
+            // поэтому повторная загрузка из БД для проверки не нужна.
             User savedUser = userRepository.saveAndFlush(user);
-            logger.info("Пользователь успешно сохранен/обновлен через saveAndFlush: ID={}, Phone={}, Telegram ID={}, Telegram={}",
-                    savedUser.getId(), savedUser.getPhone(), savedUser.getTelegramId(), savedUser.getTelegram());
-
-            if (user.getTelegramId() != null) {
-                entityManager.flush();
-                entityManager.clear();
-                // Перезагружаем пользователя из БД
-                User reloadedUser = userRepository.findById(savedUser.getId()).orElse(null);
-                if (reloadedUser == null || !user.getTelegramId().equals(reloadedUser.getTelegramId())) {
-                    logger.warn("Данные Telegram не обновились после saveAndFlush для ID={}. Ожидался ID: {}, Фактический: {}. Попытка прямого обновления...",
-                            savedUser.getId(), user.getTelegramId(), reloadedUser != null ? reloadedUser.getTelegramId() : "null");
-                    // Если стандартный saveAndFlush не сработал (что странно, но возможно),
-                    // пробуем наш надежный прямой метод обновления
-                    boolean updatedDirectly = updateTelegramInfo(savedUser.getId(), user.getTelegramId(), user.getTelegram());
-                    if (updatedDirectly) {
-                        logger.info("Данные Telegram для ID={} успешно обновлены прямым запросом.", savedUser.getId());
-                        // Перезагружаем еще раз, чтобы вернуть актуальное состояние
-                        entityManager.flush();
-                        entityManager.clear();
-                        savedUser = userRepository.findById(savedUser.getId()).orElse(savedUser); // Возвращаем обновленного пользователя
-                    } else {
-                        logger.error("КРИТИЧЕСКАЯ ОШИБКА: Не удалось обновить данные Telegram для ID={} ни одним из способов!", savedUser.getId());
-                        // В этом случае лучше выбросить исключение, чтобы транзакция откатилась
-                        throw new RuntimeException("Не удалось обновить данные Telegram для пользователя ID: " + savedUser.getId());
-                    }
-                } else {
-                    logger.info("Проверка после перезагрузки: Данные Telegram ID={} для пользователя ID={} совпадают.", reloadedUser.getTelegramId(), savedUser.getId());
+            // Телефон, пароль или роль могли измениться — сбрасываем кэши после фиксации транзакции:
+            // иначе параллельный запрос между flush и commit загрузил бы старые данные и закэшировал их на весь TTL
+            Long savedId = savedUser.getId();
+            String savedPhone = savedUser.getPhone();
+            AfterCommit.run(() -> {
+                instructionAccessService.invalidateAccessSet(savedId);
+                userCache.removeUserFromCache(savedPhone);
+                if (previousPhone != null && !previousPhone.equals(savedPhone)) {
+                    userCache.removeUserFromCache(previousPhone);
                 }
-            }
-
+            });
+            logger.info("Пользователь успешно сохранен/обновлен: ID={}, Phone={}, Telegram ID={}, Telegram={}",
+                    savedUser.getId(), savedUser.getPhone(), savedUser.getTelegramId(), savedUser.getTelegram());
             return savedUser;
         } catch (Exception e) {
             logger.error("Ошибка при сохранении/обновлении пользователя ID={}, Phone={}: {}", user.getId(), user.getPhone(), e.getMessage(), e);
@@ -143,12 +193,12 @@ public class UserService {
 
     /**
      * Метод для прямого обновления полей Telegram по ID пользователя.
-     * Использует JPQL для большей безопасности и переносимости, чем нативный SQL.
+     * Выполняется одним JPQL UPDATE; успех определяется по числу обновленных строк, без повторной загрузки.
      * РЕКОМЕНДУЕТСЯ для привязки Telegram к существующему пользователю.
      * @param userId ID пользователя для обновления.
      * @param telegramId Новый Telegram ID (может быть null для отвязки).
      * @param telegramUsername Новый Telegram Username (может быть null).
-     * @return true, если обновление прошло успешно (хотя бы одна строка обновлена), иначе false.
+     * @return true, если обновление прошло успешно (обновлена одна строка), иначе false.
      */
     @Transactional
     public boolean updateTelegramInfo(Long userId, Long telegramId, String telegramUsername) {
@@ -157,48 +207,16 @@ public class UserService {
             return false;
         }
 
-        logger.info("Начало обновления Telegram данных для ID={}: telegramId={}, telegramUsername={}",
+        logger.info("Обновление Telegram данных для ID={}: telegramId={}, telegramUsername={}",
                 userId, telegramId, telegramUsername);
 
         try {
-            // Сначала проверим, существует ли пользователь и загрузим его
-            User user = userRepository.findById(userId).orElse(null);
-            if (user == null) {
-                logger.error("Пользователь с ID={} не найден для обновления Telegram.", userId);
+            int updatedRows = userRepository.updateTelegramFields(userId, telegramId, telegramUsername);
+            if (updatedRows != 1) {
+                logger.error("Пользователь с ID={} не найден для обновления Telegram (обновлено строк: {}).", userId, updatedRows);
                 return false;
             }
-
-            // Логируем текущие значения
-            logger.info("Текущие данные: telegramId={}, telegram={}",
-                    user.getTelegramId(), user.getTelegram());
-
-            // Прямое обновление полей объекта
-            user.setTelegramId(telegramId);
-            user.setTelegram(telegramUsername);
-
-            // Сохраняем и синхронизируем с БД
-            userRepository.saveAndFlush(user);
-
-            // Очищаем кэш
-            entityManager.flush();
-            entityManager.clear();
-
-            // Проверяем результат
-            User updatedUser = userRepository.findById(userId).orElse(null);
-            if (updatedUser != null) {
-                logger.info("После обновления: telegramId={}, telegram={}",
-                        updatedUser.getTelegramId(), updatedUser.getTelegram());
-
-                // Проверка успешности обновления
-                boolean telegramIdUpdated = (telegramId == null && updatedUser.getTelegramId() == null) ||
-                        (telegramId != null && telegramId.equals(updatedUser.getTelegramId()));
-                boolean telegramUsernameUpdated = (telegramUsername == null && updatedUser.getTelegram() == null) ||
-                        (telegramUsername != null && telegramUsername.equals(updatedUser.getTelegram()));
-
-                return telegramIdUpdated && telegramUsernameUpdated;
-            }
-
-            return false;
+            return true;
         } catch (Exception e) {
             logger.error("Ошибка при обновлении данных Telegram для пользователя ID={}: {}",
                     userId, e.getMessage(), e);
@@ -206,27 +224,31 @@ public class UserService {
         }
     }
 
-    public void handleReferralLink(User user, String newReferralLink) {
-        if (user == null || newReferralLink == null || newReferralLink.isBlank()) {
-            return;
+    /**
+     * Выдает пользователю доступ к инструкции по QR-коду.
+     * Запись добавляется в user_instruction_access одной вставкой; сам пользователь не пересохраняется.
+     * @param userId ID пользователя.
+     * @param qrCode QR-код инструкции.
+     * @return true, если инструкция найдена и доступ выдан (или уже был), иначе false.
+     */
+    public boolean handleReferralLink(Long userId, String qrCode) {
+        if (userId == null || qrCode == null || qrCode.isBlank()) {
+            return false;
         }
 
-        String currentLinksString = user.getReferralLink();
-        List<String> currentLinks = (currentLinksString == null || currentLinksString.isBlank())
-                ? new ArrayList<>()
-                : new ArrayList<>(Arrays.asList(currentLinksString.split(REFERRAL_LINK_SEPARATOR)));
-
-        // Используем trim() для удаления возможных пробелов вокруг ссылок
-        String trimmedNewLink = newReferralLink.trim();
-
-        if (!currentLinks.contains(trimmedNewLink)) {
-            logger.debug("Добавление новой реферальной ссылки '{}' для пользователя ID {}", trimmedNewLink, user.getId());
-            currentLinks.add(trimmedNewLink);
-            // Сохраняем ссылки без лишних пробелов
-            user.setReferralLink(String.join(REFERRAL_LINK_SEPARATOR, currentLinks));
-        } else {
-            logger.debug("Реферальная ссылка '{}' уже существует для пользователя ID {}", trimmedNewLink, user.getId());
+        // Используем trim() для удаления возможных пробелов вокруг кода
+        String trimmedCode = qrCode.trim();
+        Optional<InstructionSummary> instructionOpt = qrCodeResolver.resolve(trimmedCode);
+        if (instructionOpt.isEmpty()) {
+            logger.warn("Инструкция с QR-кодом '{}' не найдена, доступ пользователю ID {} не выдан", trimmedCode, userId);
+            return false;
         }
+
+        // Набор доступа в кэше сбрасывается самим grantAccess после фиксации вставки
+        boolean granted = instructionAccessService.grantAccess(userId, instructionOpt.get().getId());
+        logger.debug("QR-код '{}' для пользователя ID {}: {}", trimmedCode, userId,
+                granted ? "доступ добавлен" : "доступ уже существует");
+        return true;
     }
 
     /**
@@ -235,39 +257,6 @@ public class UserService {
      * @return Нормализованный номер или null, если формат некорректен.
      */
     public String normalizePhoneNumber(String phone) {
-        if (phone == null || phone.isBlank()) {
-            return null;
-        }
-        String digits = phone.replaceAll("[^\\d]", "");
-
-        if (digits.startsWith("8") && digits.length() == 11) {
-            digits = "7" + digits.substring(1);
-        } else if (digits.length() == 10 && !digits.startsWith("7")) { // Если 10 цифр и не начинается с 7
-            digits = "7" + digits;
-        } else if (digits.startsWith("7") && digits.length() == 11) {
-
-        } else if (digits.length() == 11 && !digits.startsWith("7")) {
-
-            if (phone.startsWith("+") && digits.length() >= 11) { // Проверяем исходную строку на '+'
-                return "+" + digits;
-            } else {
-                logger.warn("Неопределенный формат номера (11 цифр, не начинается с 7): {}", phone);
-                return null; // Считаем некорректным для РФ
-            }
-        }
-        else {
-            // Длина не 10 или 11 (после удаления 8ки) - некорректный формат для РФ
-            logger.warn("Некорректная длина номера после удаления нецифровых символов: {} (исходный: {})", digits, phone);
-            return null;
-        }
-
-        // Проверка итоговой длины (должна быть 11 для +7...)
-        if (digits.length() != 11 || !digits.startsWith("7")) {
-            logger.warn("Финальная проверка: Некорректный формат номера: {} (исходный: {})", digits, phone);
-            return null;
-        }
-
-        // Добавляем +
-        return "+" + digits;
+        return PhoneNumbers.normalize(phone);
     }
 }
\ No newline at end of file
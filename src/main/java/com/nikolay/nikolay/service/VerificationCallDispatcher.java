@@ -0,0 +1,219 @@
+package com.nikolay.nikolay.service;
+
+import com.nikolay.nikolay.enums.VerificationCallState;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Асинхронная отправка звонков с кодом подтверждения.
+ * Запрос к Novofon выполняется в ограниченном пуле потоков, поэтому страница ввода кода открывается сразу,
+ * а задержки провайдера не занимают потоки Tomcat. Код генерируется один раз на отправку и используется во всех
+ * попытках. Повторяются только запросы, которые заведомо не были отправлены (нет соединения с Novofon),
+ * с экспоненциальной задержкой и случайным разбросом (чтобы повторы после сбоя не приходили одной волной).
+ * Состояние звонка по телефону доступно для опроса со страницы ввода кода.
+ */
+@Service
+public class VerificationCallDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(VerificationCallDispatcher.class);
+
+    private final NovofonVerificationService novofonVerificationService;
+    private final ThreadPoolExecutor executor;
+    private final ScheduledThreadPoolExecutor retryScheduler;
+    private final int maxAttempts;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Duration statusTtl;
+    // Телефон -> состояние последнего звонка
+    private final Map<String, CallStatus> statuses = new ConcurrentHashMap<>();
+
+    private final Counter sent;
+    private final Counter failed;
+    private final Counter retried;
+    private final Counter rejected;
+
+    public VerificationCallDispatcher(NovofonVerificationService novofonVerificationService,
+                                      MeterRegistry meterRegistry,
+                                      @Value("${app.verification.dispatch.threads:4}") int threads,
+                                      @Value("${app.verification.dispatch.queue-capacity:100}") int queueCapacity,
+                                      @Value("${app.verification.dispatch.max-attempts:3}") int maxAttempts,
+                                      @Value("${app.verification.dispatch.initial-backoff:PT1S}") Duration initialBackoff,
+                                      @Value("${app.verification.dispatch.max-backoff:PT10S}") Duration maxBackoff,
+                                      @Value("${app.verification.dispatch.status-ttl:PT10M}") Duration statusTtl) {
+        this.novofonVerificationService = novofonVerificationService;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoffMillis = initialBackoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        this.statusTtl = statusTtl;
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "verification-call-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+        this.retryScheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "verification-call-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.sent = Counter.builder("verification.call").tag("result", "sent").register(meterRegistry);
+        this.failed = Counter.builder("verification.call").tag("result", "failed").register(meterRegistry);
+        this.retried = Counter.builder("verification.call").tag("result", "retry").register(meterRegistry);
+        this.rejected = Counter.builder("verification.call").tag("result", "rejected").register(meterRegistry);
+        Gauge.builder("verification.call.queue.depth", executor, e -> e.getQueue().size())
+                .description("Число звонков в очереди на отправку")
+                .register(meterRegistry);
+
+        logger.info("Отправка звонков: потоков={}, очередь={}, попыток={}", threads, queueCapacity, this.maxAttempts);
+    }
+
+    /**
+     * Ставит звонок с новым кодом в очередь. Если звонок на этот номер уже в очереди или выполняется,
+     * повторно не ставится.
+     * @param phone Нормализованный номер телефона.
+     * @throws RejectedExecutionException если очередь звонков заполнена.
+     */
+    public void dispatch(String phone) {
+        CallStatus queued = new CallStatus(VerificationCallState.QUEUED, 1, null);
+        CallStatus current = statuses.compute(phone,
+                (key, previous) -> previous != null && !previous.isFinished() ? previous : queued);
+        if (current != queued) {
+            logger.info("Звонок на номер {} уже в обработке, повторно не ставится", phone);
+            return;
+        }
+        String code = novofonVerificationService.generateCode();
+        try {
+            executor.execute(() -> attempt(phone, code, 1));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            statuses.put(phone, new CallStatus(VerificationCallState.FAILED, 1, "Сервис звонков перегружен"));
+            logger.warn("Звонок на номер {} отклонен: очередь заполнена", phone);
+            throw e;
+        }
+    }
+
+    /**
+     * Возвращает состояние последнего звонка на номер.
+     */
+    public Optional<CallStatus> getStatus(String phone) {
+        return Optional.ofNullable(phone != null ? statuses.get(phone) : null);
+    }
+
+    private void attempt(String phone, String code, int attemptNumber) {
+        statuses.put(phone, new CallStatus(VerificationCallState.DIALING, attemptNumber, null));
+        try {
+            novofonVerificationService.sendVerificationCode(phone, code);
+            statuses.put(phone, new CallStatus(VerificationCallState.SENT, attemptNumber, null));
+            sent.increment();
+        } catch (VerificationCallException e) {
+            if (e.isRetryable() && attemptNumber < maxAttempts) {
+                long delay = backoffMillis(attemptNumber);
+                statuses.put(phone, new CallStatus(VerificationCallState.QUEUED, attemptNumber + 1, null));
+                retried.increment();
+                logger.warn("Временная ошибка звонка на {} (попытка {}), повтор через {} мс: {}",
+                        phone, attemptNumber, delay, e.getMessage());
+                retryScheduler.schedule(() -> resubmit(phone, code, attemptNumber + 1), delay, TimeUnit.MILLISECONDS);
+            } else {
+                fail(phone, attemptNumber, e.getMessage());
+            }
+        } catch (RuntimeException e) {
+            logger.error("Непредвиденная ошибка звонка на {}", phone, e);
+            fail(phone, attemptNumber, "Внутренняя ошибка сервиса верификации.");
+        }
+    }
+
+    private void resubmit(String phone, String code, int attemptNumber) {
+        try {
+            executor.execute(() -> attempt(phone, code, attemptNumber));
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            fail(phone, attemptNumber, "Сервис звонков перегружен");
+        }
+    }
+
+    private void fail(String phone, int attemptNumber, String message) {
+        statuses.put(phone, new CallStatus(VerificationCallState.FAILED, attemptNumber, message));
+        failed.increment();
+        logger.error("Не удалось позвонить на номер {} за {} попыт(ки): {}", phone, attemptNumber, message);
+    }
+
+    /**
+     * Задержка перед повтором: половина экспоненциальной задержки плюс случайная добавка до второй половины.
+     */
+    private long backoffMillis(int attemptNumber) {
+        long exponential = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attemptNumber - 1, 20));
+        long half = exponential / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    /**
+     * Удаляет состояния звонков старше status-ttl.
+     */
+    @Scheduled(fixedDelayString = "${app.verification.dispatch.cleanup-interval:PT1M}")
+    public void removeExpiredStatuses() {
+        long threshold = System.nanoTime() - statusTtl.toNanos();
+        statuses.values().removeIf(status -> status.isFinished() && status.updatedAtNanos - threshold < 0);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retryScheduler.shutdownNow();
+        executor.shutdown();
+    }
+
+    /**
+     * Неизменяемый снимок состояния звонка.
+     */
+    public static final class CallStatus {
+        private final VerificationCallState state;
+        private final int attempt;
+        private final String error;
+        private final long updatedAtNanos = System.nanoTime();
+
+        private CallStatus(VerificationCallState state, int attempt, String error) {
+            this.state = state;
+            this.attempt = attempt;
+            this.error = error;
+        }
+
+        public VerificationCallState getState() {
+            return state;
+        }
+
+        public int getAttempt() {
+            return attempt;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public boolean isFinished() {
+            return state == VerificationCallState.SENT || state == VerificationCallState.FAILED;
+        }
+    }
+}
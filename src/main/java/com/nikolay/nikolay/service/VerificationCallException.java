@@ -0,0 +1,30 @@
+package com.nikolay.nikolay.service;
+
+/**
+ * Ошибка инициации звонка с кодом подтверждения.
+ * retryable = true, только если запрос к Novofon заведомо не был отправлен (не удалось соединиться
+ * или получить соединение из пула): только такой повтор не может привести ко второму платному звонку.
+ */
+public class VerificationCallException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean retryable;
+
+    public VerificationCallException(String message, boolean retryable) {
+        super(message);
+        this.retryable = retryable;
+    }
+
+    public VerificationCallException(String message, boolean retryable, Throwable cause) {
+        super(message, cause);
+        this.retryable = retryable;
+    }
+
+    /**
+     * Можно ли повторить звонок позже.
+     */
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
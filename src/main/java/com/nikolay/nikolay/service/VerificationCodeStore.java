@@ -0,0 +1,41 @@
+package com.nikolay.nikolay.service;
+
+/**
+ * Хранилище кодов подтверждения (телефон -> код с ограниченным сроком жизни).
+ * Реализация выбирается свойством app.verification.codes.store:
+ * memory — в памяти процесса (один экземпляр приложения), jdbc — в общей БД (несколько экземпляров).
+ */
+public interface VerificationCodeStore {
+
+    /**
+     * Результат проверки введенного кода.
+     */
+    enum Match {
+        VALID,
+        INVALID,
+        MISSING
+    }
+
+    /**
+     * Проверяет, что код для номера может быть сохранен, ничего не сохраняя.
+     * Вызывается до звонка, чтобы не звонить, если код потом не удастся сохранить.
+     */
+    boolean hasCapacityFor(String phone);
+
+    /**
+     * Сохраняет код для номера, заменяя предыдущий.
+     * @return false, если код не может быть сохранен (хранилище заполнено).
+     */
+    boolean put(String phone, String code);
+
+    /**
+     * Сравнивает введенный код с действующим кодом номера. Истекший код считается отсутствующим.
+     */
+    Match match(String phone, String code);
+
+    /**
+     * Удаляет код для номера.
+     * @return true, если код был удален.
+     */
+    boolean remove(String phone);
+}
@@ -0,0 +1,23 @@
+package com.nikolay.nikolay.service;
+
+/**
+ * Выбрасывается, когда исчерпан лимит звонков с кодом для номера телефона или IP-адреса.
+ */
+public class VerificationRateLimitException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long retryAfterSeconds;
+
+    public VerificationRateLimitException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    /**
+     * Через сколько секунд появится свободный звонок (для заголовка Retry-After).
+     */
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
@@ -0,0 +1,144 @@
+package com.nikolay.nikolay.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограничение числа звонков с кодом подтверждения (каждый звонок Novofon платный).
+ * Для каждого номера телефона и каждого IP-адреса ведется свой token bucket:
+ * capacity звонков подряд, затем по одному звонку за refill-interval.
+ * Состояние ведра — одно число в AtomicLong, изменяемое через CAS, поэтому общих блокировок нет.
+ * Ведра хранятся в ограниченном по размеру кэше и удаляются, когда ведро заведомо снова полное.
+ */
+@Service
+public class VerificationRateLimiter {
+
+    private static final Logger logger = LoggerFactory.getLogger(VerificationRateLimiter.class);
+
+    private final TokenBuckets phoneBuckets;
+    private final TokenBuckets ipBuckets;
+    private final Counter phoneLimited;
+    private final Counter ipLimited;
+
+    public VerificationRateLimiter(
+            @Value("${app.verification.rate-limit.phone.capacity:3}") int phoneCapacity,
+            @Value("${app.verification.rate-limit.phone.refill-interval:PT5M}") Duration phoneRefillInterval,
+            @Value("${app.verification.rate-limit.ip.capacity:10}") int ipCapacity,
+            @Value("${app.verification.rate-limit.ip.refill-interval:PT1M}") Duration ipRefillInterval,
+            @Value("${app.verification.rate-limit.max-keys:100000}") long maxKeys,
+            MeterRegistry meterRegistry) {
+        this.phoneBuckets = new TokenBuckets(phoneCapacity, phoneRefillInterval, maxKeys);
+        this.ipBuckets = new TokenBuckets(ipCapacity, ipRefillInterval, maxKeys);
+
+        this.phoneLimited = Counter.builder("verification.rate.limited").tag("scope", "phone")
+                .description("Звонки, отклоненные лимитом на номер телефона")
+                .register(meterRegistry);
+        this.ipLimited = Counter.builder("verification.rate.limited").tag("scope", "ip")
+                .description("Звонки, отклоненные лимитом на IP-адрес")
+                .register(meterRegistry);
+        Gauge.builder("verification.rate.buckets", this, limiter -> limiter.phoneBuckets.size() + limiter.ipBuckets.size())
+                .description("Число отслеживаемых номеров и IP-адресов")
+                .register(meterRegistry);
+
+        logger.info("Лимит звонков: номер {} за {}, IP {} за {}",
+                phoneCapacity, phoneRefillInterval, ipCapacity, ipRefillInterval);
+    }
+
+    /**
+     * Списывает по одному звонку с ведер IP-адреса и номера.
+     * IP проверяется первым: запросы, отклоненные по IP, не расходуют лимит номера,
+     * и перебор с одного адреса не блокирует звонки владельцу номера.
+     * @throws VerificationRateLimitException если лимит исчерпан.
+     */
+    public void acquire(String phone, String clientIp) {
+        if (clientIp != null) {
+            long waitNanos = ipBuckets.tryAcquire(clientIp);
+            if (waitNanos > 0) {
+                ipLimited.increment();
+                logger.warn("Лимит звонков с IP {} исчерпан (запрошен номер {})", clientIp, phone);
+                throw new VerificationRateLimitException(
+                        "Слишком много запросов кода. Повторите попытку позже.", toRetryAfterSeconds(waitNanos));
+            }
+        }
+        long waitNanos = phoneBuckets.tryAcquire(phone);
+        if (waitNanos > 0) {
+            phoneLimited.increment();
+            logger.warn("Лимит звонков на номер {} исчерпан (IP {})", phone, clientIp);
+            throw new VerificationRateLimitException(
+                    "Код на этот номер уже запрашивался несколько раз. Повторите попытку позже.",
+                    toRetryAfterSeconds(waitNanos));
+        }
+    }
+
+    private static long toRetryAfterSeconds(long waitNanos) {
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+
+    /**
+     * Набор token bucket с общими параметрами.
+     * Ведро хранится как момент (по System.nanoTime), к которому оно снова станет полным:
+     * каждый звонок сдвигает этот момент на refill-interval, а звонок разрешен, пока момент
+     * отстоит от текущего времени не больше чем на capacity * refill-interval.
+     * Это тот же token bucket (число жетонов вычисляется из разницы), но с одним полем вместо пары
+     * «жетоны + время пополнения», что позволяет обновлять его одним compareAndSet.
+     */
+    static final class TokenBuckets {
+
+        private final long refillNanos;
+        private final long burstNanos;
+        private final Cache<String, AtomicLong> buckets;
+
+        TokenBuckets(int capacity, Duration refillInterval, long maxKeys) {
+            this.refillNanos = refillInterval.toNanos();
+            this.burstNanos = Math.max(1, capacity) * refillNanos;
+            // Ведро, к которому не обращались дольше burst, уже полное: удаление его из кэша ничего не меняет
+            this.buckets = CacheBuilder.newBuilder()
+                    .maximumSize(maxKeys)
+                    .expireAfterAccess(burstNanos, TimeUnit.NANOSECONDS)
+                    .build();
+        }
+
+        /**
+         * Списывает жетон.
+         * @return 0, если жетон списан, иначе время в наносекундах до появления жетона.
+         */
+        long tryAcquire(String key) {
+            AtomicLong bucket = buckets.getIfPresent(key);
+            if (bucket == null) {
+                AtomicLong created = new AtomicLong(System.nanoTime());
+                bucket = buckets.asMap().putIfAbsent(key, created);
+                if (bucket == null) {
+                    bucket = created;
+                }
+            }
+            while (true) {
+                long fullAt = bucket.get();
+                // Время читается после состояния ведра: иначе поток с устаревшим now при конкуренции
+                // насчитал бы лишнюю задержку и отказал, хотя жетон еще есть
+                long now = System.nanoTime();
+                long next = Math.max(fullAt - now, 0) + refillNanos;
+                if (next > burstNanos) {
+                    return next - burstNanos;
+                }
+                if (bucket.compareAndSet(fullAt, now + next)) {
+                    return 0;
+                }
+            }
+        }
+
+        long size() {
+            return buckets.size();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.nikolay.nikolay.util;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Отложенные действия над кэшами до фиксации транзакции.
+ * Сброс кэша до commit оставляет окно, в котором параллельный запрос загрузит старые данные и закэширует их на весь TTL.
+ */
+public final class AfterCommit {
+
+    private AfterCommit() {
+    }
+
+    /**
+     * Выполняет действие после успешной фиксации текущей транзакции или сразу, если транзакции нет.
+     */
+    public static void run(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,109 @@
+package com.nikolay.nikolay.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Утилиты для работы с номерами телефонов.
+ * Нормализация вынесена из UserService, чтобы ее могли использовать компоненты,
+ * которые не должны зависеть от сервисного слоя (например, кэш пользователей Spring Security).
+ *
+ * Нормализация выполняется за один проход по строке без регулярных выражений:
+ * она вызывается при каждом входе и каждом поиске пользователя по телефону.
+ */
+public final class PhoneNumbers {
+
+    private static final Logger logger = LoggerFactory.getLogger(PhoneNumbers.class);
+
+    // Длина нормализованного номера: '+' и 11 цифр
+    private static final int NORMALIZED_LENGTH = 12;
+
+    // Переиспользуемый буфер потока: [0] = '+', [1..11] = первые 11 цифр номера
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> {
+        char[] buffer = new char[NORMALIZED_LENGTH];
+        buffer[0] = '+';
+        return buffer;
+    });
+
+    private PhoneNumbers() {
+    }
+
+    /**
+     * Нормализует номер телефона к международному формату +7XXXXXXXXXX.
+     * <ul>
+     *     <li>11 цифр, начинается с 8 — 8 заменяется на 7;</li>
+     *     <li>10 цифр, не начинается с 7 — добавляется 7;</li>
+     *     <li>11 цифр, начинается с 7 — без изменений;</li>
+     *     <li>11 цифр с другой первой цифрой — допускается только если исходная строка начинается с '+'.</li>
+     * </ul>
+     * Остальные варианты считаются некорректными.
+     * @param phone Исходный номер телефона.
+     * @return Нормализованный номер или null, если формат некорректен.
+     */
+    public static String normalize(String phone) {
+        if (phone == null || phone.isBlank()) {
+            return null;
+        }
+
+        char[] buffer = BUFFER.get();
+        int digitCount = 0;
+        for (int i = 0, length = phone.length(); i < length; i++) {
+            char c = phone.charAt(i);
+            if (c >= '0' && c <= '9') {
+                // Больше 11 цифр не сохраняем: такой номер все равно некорректен, но считаем длину до конца
+                if (digitCount < NORMALIZED_LENGTH - 1) {
+                    buffer[digitCount + 1] = c;
+                }
+                digitCount++;
+            }
+        }
+
+        if (digitCount == 11) {
+            char first = buffer[1];
+            if (first == '8') {
+                buffer[1] = '7';
+                return new String(buffer, 0, NORMALIZED_LENGTH);
+            }
+            if (first == '7' || phone.charAt(0) == '+') {
+                return new String(buffer, 0, NORMALIZED_LENGTH);
+            }
+            logger.warn("Неопределенный формат номера (11 цифр, не начинается с 7): {}", phone);
+            return null; // Считаем некорректным для РФ
+        }
+
+        if (digitCount == 10 && buffer[1] != '7') {
+            // Сдвигаем 10 цифр на одну позицию и добавляем код страны 7
+            System.arraycopy(buffer, 1, buffer, 2, 10);
+            buffer[1] = '7';
+            return new String(buffer, 0, NORMALIZED_LENGTH);
+        }
+
+        // Длина не 10 или 11 (или 10 цифр, начинающихся с 7) - некорректный формат для РФ
+        logger.warn("Некорректная длина номера после удаления нецифровых символов: {} (исходный: {})", digitsOnly(phone), phone);
+        return null;
+    }
+
+    /**
+     * Оставляет в строке только цифры 0-9.
+     * @param value Исходная строка (может быть null).
+     * @return Строка из цифр (пустая для null).
+     */
+    public static String digitsOnly(String value) {
+        if (value == null) {
+            return "";
+        }
+        StringBuilder digits = null;
+        for (int i = 0, length = value.length(); i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (digits != null) {
+                    digits.append(c);
+                }
+            } else if (digits == null) {
+                // Первый нецифровой символ: копируем уже просмотренные цифры и дальше собираем результат
+                digits = new StringBuilder(length).append(value, 0, i);
+            }
+        }
+        return digits != null ? digits.toString() : value;
+    }
+}
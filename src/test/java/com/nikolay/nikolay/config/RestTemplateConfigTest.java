@@ -0,0 +1,130 @@
+package com.nikolay.nikolay.config;
+
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.core5.pool.PoolStats;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверка HTTP-клиента внешних API на локальном сервере-заглушке:
+ * повторное использование соединения из пула и общий срок запроса при медленной отдаче ответа.
+ */
+class RestTemplateConfigTest {
+
+    private static final Duration TOTAL_TIMEOUT = Duration.ofSeconds(1);
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+    private DeadlineHttpRequestFactory requestFactory;
+    private RestTemplate restTemplate;
+    private String baseUrl;
+    // Порты клиента, с которых приходили запросы: один порт — одно TCP-соединение
+    private final Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        serverExecutor = Executors.newFixedThreadPool(4);
+        server.setExecutor(serverExecutor);
+        server.createContext("/ok", exchange -> {
+            clientPorts.add(exchange.getRemoteAddress().getPort());
+            byte[] body = "{\"result\":\"ok\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.createContext("/trickle", exchange -> {
+            // Ответ по байту каждые 200 мс в течение 10 секунд: таймаут чтения не срабатывает, срабатывает общий срок
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (int i = 0; i < 50; i++) {
+                    out.write('x');
+                    out.flush();
+                    Thread.sleep(200);
+                }
+            } catch (IOException e) {
+                // Клиент закрыл соединение по истечении срока
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+        RestTemplateConfig config = new RestTemplateConfig();
+        connectionManager = config.httpConnectionManager(20, 10, Duration.ofSeconds(2), Duration.ofSeconds(5),
+                Duration.ofMinutes(5), new SimpleMeterRegistry());
+        httpClient = config.httpClient(connectionManager, Duration.ofSeconds(1), Duration.ofSeconds(5), Duration.ofSeconds(30));
+        requestFactory = config.httpRequestFactory(httpClient, TOTAL_TIMEOUT);
+        restTemplate = new RestTemplate(requestFactory);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        requestFactory.destroy();
+        connectionManager.close();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Test
+    void sequentialRequestsReuseOneConnection() {
+        for (int i = 0; i < 5; i++) {
+            assertEquals("{\"result\":\"ok\"}", restTemplate.getForObject(baseUrl + "/ok", String.class));
+        }
+
+        PoolStats stats = connectionManager.getTotalStats();
+        assertEquals(0, stats.getLeased());
+        assertEquals(1, stats.getAvailable());
+        assertEquals(1, clientPorts.size(), "все запросы должны идти через одно TCP-соединение");
+        // Закрытый ответ снимает свою задачу отмены, а не оставляет ее в планировщике до срока
+        assertEquals(0, requestFactory.pendingDeadlines());
+    }
+
+    @Test
+    void slowResponseIsCancelledAfterTotalTimeout() throws InterruptedException {
+        long started = System.nanoTime();
+        assertThrows(ResourceAccessException.class, () -> restTemplate.getForObject(baseUrl + "/trickle", String.class));
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - started);
+
+        assertTrue(elapsed.compareTo(TOTAL_TIMEOUT.plusSeconds(2)) < 0, "запрос длился " + elapsed);
+        // Отмененное соединение не остается занятым. Отмена сначала закрывает сокет (чтение падает сразу),
+        // а освобождает соединение в пуле уже после этого в потоке планировщика — поэтому ждем, а не проверяем сразу
+        assertEquals(0, awaitLeased(0, Duration.ofSeconds(1)));
+    }
+
+    private int awaitLeased(int expected, Duration timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        int leased = connectionManager.getTotalStats().getLeased();
+        while (leased != expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            leased = connectionManager.getTotalStats().getLeased();
+        }
+        return leased;
+    }
+}
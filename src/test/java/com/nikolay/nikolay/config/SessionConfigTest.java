@@ -0,0 +1,170 @@
+package com.nikolay.nikolay.config;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.jdbc.JdbcTest;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextImpl;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.session.FlushMode;
+import org.springframework.session.SaveMode;
+import org.springframework.session.Session;
+import org.springframework.session.SessionRepository;
+import org.springframework.session.jdbc.JdbcIndexedSessionRepository;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Проверка хранения сессий Spring Session JDBC на H2 с настройками приложения:
+ * компактная сериализация атрибутов, запись только измененных атрибутов и порционная очистка истекших сессий.
+ */
+@JdbcTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+class SessionConfigTest {
+
+    private static final int CLEANUP_BATCH_SIZE = 2;
+
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private JdbcIndexedSessionRepository repository;
+    // Тот же репозиторий через публичный интерфейс: класс JdbcSession недоступен вне пакета Spring Session
+    private SessionRepository<Session> sessions;
+
+    @BeforeEach
+    void setUp() {
+        createSchema(dataSource);
+        repository = createRepository(jdbcTemplate, new TransactionTemplate(transactionManager),
+                new SessionConfig().springSessionConversionService());
+        new SessionConfig().sessionCleanupCustomizer(CLEANUP_BATCH_SIZE).customize(repository);
+        sessions = asSessionRepository(repository);
+    }
+
+    @Test
+    void attributesRoundTripInCompactEncoding() {
+        Session session = sessions.createSession();
+        session.setAttribute("registrationPhone", "+79990000001");
+        session.setAttribute("existingUserMode", true);
+        session.setAttribute("existingUserId", 42L);
+        session.setAttribute("SPRING_SECURITY_CONTEXT", securityContext("+79990000001"));
+        sessions.save(session);
+
+        Session loaded = sessions.findById(session.getId());
+        assertEquals("+79990000001", loaded.getAttribute("registrationPhone"));
+        assertEquals(Boolean.TRUE, loaded.getAttribute("existingUserMode"));
+        assertEquals(42L, (Long) loaded.getAttribute("existingUserId"));
+        SecurityContext context = loaded.getAttribute("SPRING_SECURITY_CONTEXT");
+        assertEquals("+79990000001", context.getAuthentication().getName());
+        assertEquals(List.of("ROLE_USER"), AuthorityUtils.authorityListToSet(context.getAuthentication().getAuthorities())
+                .stream().toList());
+
+        // Тег типа и значение: строка — 1 + 12 байт, Long — 1 + 8 байт
+        assertEquals(13, attributeSize("registrationPhone"));
+        assertEquals(9, attributeSize("existingUserId"));
+    }
+
+    @Test
+    void onlyChangedAttributesAreWritten() {
+        Session session = sessions.createSession();
+        session.setAttribute("registrationPhone", "+79990000001");
+        session.setAttribute("existingUserMode", false);
+        sessions.save(session);
+        // Запись атрибута, которого не касались в запросе, была бы видна по измененному значению в БД
+        jdbcTemplate.update("UPDATE SPRING_SESSION_ATTRIBUTES SET ATTRIBUTE_BYTES = ? WHERE ATTRIBUTE_NAME = ?",
+                new SessionConfig().springSessionConversionService().convert("+79990000002", byte[].class),
+                "registrationPhone");
+
+        Session next = sessions.findById(session.getId());
+        next.setAttribute("existingUserMode", true);
+        sessions.save(next);
+
+        Session loaded = sessions.findById(session.getId());
+        assertEquals("+79990000002", loaded.getAttribute("registrationPhone"));
+        assertEquals(Boolean.TRUE, loaded.getAttribute("existingUserMode"));
+    }
+
+    @Test
+    void expiredSessionsAreDeletedInBatches() {
+        for (int i = 0; i < 5; i++) {
+            Session session = sessions.createSession();
+            session.setLastAccessedTime(Instant.now().minus(Duration.ofHours(1)));
+            session.setAttribute("registrationPhone", "+7999000000" + i);
+            sessions.save(session);
+        }
+        Session live = sessions.createSession();
+        sessions.save(live);
+
+        repository.cleanUpExpiredSessions();
+        assertEquals(4, countSessions());
+
+        repository.cleanUpExpiredSessions();
+        repository.cleanUpExpiredSessions();
+        assertEquals(1, countSessions());
+        assertNotNull(sessions.findById(live.getId()));
+        // Атрибуты удалены каскадно вместе с сессиями
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM SPRING_SESSION_ATTRIBUTES", Integer.class));
+    }
+
+    static void createSchema(DataSource dataSource) {
+        ResourceDatabasePopulator populator = new ResourceDatabasePopulator(
+                new ClassPathResource("org/springframework/session/jdbc/schema-drop-h2.sql"),
+                new ClassPathResource("org/springframework/session/jdbc/schema-h2.sql"));
+        populator.setIgnoreFailedDrops(true);
+        populator.execute(dataSource);
+    }
+
+    /**
+     * Репозиторий сессий с режимами записи из application.properties (save-mode=on-set-attribute, flush-mode=on-save).
+     */
+    static JdbcIndexedSessionRepository createRepository(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                                                         ConversionService conversionService) {
+        JdbcIndexedSessionRepository repository = new JdbcIndexedSessionRepository(jdbcTemplate, transactionTemplate);
+        repository.setConversionService(conversionService);
+        repository.setSaveMode(SaveMode.ON_SET_ATTRIBUTE);
+        repository.setFlushMode(FlushMode.ON_SAVE);
+        return repository;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static SessionRepository<Session> asSessionRepository(JdbcIndexedSessionRepository repository) {
+        return (SessionRepository) repository;
+    }
+
+    static SecurityContext securityContext(String phone) {
+        UserDetails principal = User.withUsername(phone).password("").roles("USER").build();
+        return new SecurityContextImpl(
+                UsernamePasswordAuthenticationToken.authenticated(principal, null, principal.getAuthorities()));
+    }
+
+    private int attributeSize(String name) {
+        return jdbcTemplate.queryForObject(
+                "SELECT LENGTH(ATTRIBUTE_BYTES) FROM SPRING_SESSION_ATTRIBUTES WHERE ATTRIBUTE_NAME = ?", Integer.class, name);
+    }
+
+    private int countSessions() {
+        return jdbcTemplate.queryForObject("SELECT COUNT(*) FROM SPRING_SESSION", Integer.class);
+    }
+}
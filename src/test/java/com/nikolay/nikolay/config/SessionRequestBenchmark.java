@@ -0,0 +1,120 @@
+package com.nikolay.nikolay.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.core.convert.support.GenericConversionService;
+import org.springframework.core.serializer.support.DeserializingConverter;
+import org.springframework.core.serializer.support.SerializingConverter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.session.Session;
+import org.springframework.session.SessionRepository;
+import org.springframework.session.jdbc.JdbcIndexedSessionRepository;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стоимость работы с сессией в одном HTTP-запросе при хранении в БД (H2 в памяти, режим MySQL):
+ * загрузка сессии, при необходимости запись атрибутов и сохранение в конце запроса.
+ * compact — кодек приложения (SessionAttributeCodec), jdk — Java-сериализация Spring Session по умолчанию.
+ * Сетевая задержка до MySQL в результат не входит.
+ * Запуск: mvn test-compile, затем main этого класса (из IDE или java -cp с тестовым classpath).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionRequestBenchmark {
+
+    @Param({"compact", "jdk"})
+    public String encoding;
+
+    private HikariDataSource dataSource;
+    private SessionRepository<Session> sessions;
+    private String authenticatedSessionId;
+    private String registrationSessionId;
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:sessions-" + encoding + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        SessionConfigTest.createSchema(dataSource);
+
+        ConversionService conversionService = "compact".equals(encoding)
+                ? new SessionConfig().springSessionConversionService()
+                : jdkConversionService();
+        JdbcIndexedSessionRepository repository = SessionConfigTest.createRepository(new JdbcTemplate(dataSource),
+                new TransactionTemplate(new DataSourceTransactionManager(dataSource)), conversionService);
+        sessions = SessionConfigTest.asSessionRepository(repository);
+
+        Session authenticated = sessions.createSession();
+        authenticated.setAttribute("SPRING_SECURITY_CONTEXT", SessionConfigTest.securityContext("+79990000001"));
+        sessions.save(authenticated);
+        authenticatedSessionId = authenticated.getId();
+
+        Session registration = sessions.createSession();
+        registration.setAttribute("registrationPhone", "+79990000002");
+        sessions.save(registration);
+        registrationSessionId = registration.getId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.close();
+    }
+
+    /**
+     * Просмотр страницы авторизованным пользователем: загрузка сессии с контекстом безопасности,
+     * сохранение только времени последнего обращения.
+     */
+    @Benchmark
+    public Session authenticatedPageView() {
+        Session session = sessions.findById(authenticatedSessionId);
+        sessions.save(session);
+        return session;
+    }
+
+    /**
+     * Шаг регистрации: загрузка сессии и запись двух атрибутов.
+     */
+    @Benchmark
+    public Session registrationStep() {
+        Session session = sessions.findById(registrationSessionId);
+        session.setAttribute("existingUserMode", (counter & 1) == 0);
+        session.setAttribute("existingUserId", counter++);
+        sessions.save(session);
+        return session;
+    }
+
+    private static ConversionService jdkConversionService() {
+        GenericConversionService conversionService = new GenericConversionService();
+        conversionService.addConverter(Object.class, byte[].class, new SerializingConverter());
+        conversionService.addConverter(byte[].class, Object.class,
+                new DeserializingConverter(SessionRequestBenchmark.class.getClassLoader()));
+        return conversionService;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SessionRequestBenchmark.class.getSimpleName()).build()).run();
+    }
+}
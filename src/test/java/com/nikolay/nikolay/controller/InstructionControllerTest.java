@@ -0,0 +1,112 @@
+package com.nikolay.nikolay.controller;
+
+import com.nikolay.nikolay.dto.InstructionPage;
+import com.nikolay.nikolay.dto.InstructionSummary;
+import com.nikolay.nikolay.dto.UserSummary;
+import com.nikolay.nikolay.enums.Role;
+import com.nikolay.nikolay.service.InstructionAccessService;
+import com.nikolay.nikolay.service.InstructionSearchService;
+import com.nikolay.nikolay.service.InstructionService;
+import com.nikolay.nikolay.service.QrCodeResolver;
+import com.nikolay.nikolay.service.TelegramAuthService;
+import com.nikolay.nikolay.service.UserService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.ui.ExtendedModelMap;
+import org.springframework.ui.Model;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.mvc.support.RedirectAttributesModelMap;
+
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Проверка выдачи страницы инструкции (сохраненная сжатая страница и страница с flash-сообщением)
+ * и перехода по QR-коду без авторизации.
+ */
+class InstructionControllerTest {
+
+    private static final long INSTRUCTION_ID = 7L;
+    private static final byte[] GZIP_BODY = {0x1f, (byte) 0x8b, 8, 0};
+
+    private InstructionController controller;
+    private QrCodeResolver qrCodeResolver;
+    private InstructionPage page;
+    private UserSummary user;
+
+    @BeforeEach
+    void setUp() {
+        InstructionService instructionService = mock(InstructionService.class);
+        when(instructionService.findSummaryById(INSTRUCTION_ID)).thenReturn(Optional.of(new InstructionSummary(
+                INSTRUCTION_ID, "Инструкция", "QR-1", "abc", Instant.parse("2026-01-01T00:00:00Z"))));
+        page = new InstructionPage(INSTRUCTION_ID, "Инструкция", "QR-1", "<p>Текст</p>", GZIP_BODY);
+        when(instructionService.getInstructionPage(INSTRUCTION_ID)).thenReturn(Optional.of(page));
+
+        InstructionAccessService accessService = mock(InstructionAccessService.class);
+        user = new UserSummary(1L, "+79990000001", Role.USER, null, null);
+        when(accessService.hasAccess(user.getId(), INSTRUCTION_ID)).thenReturn(true);
+
+        qrCodeResolver = mock(QrCodeResolver.class);
+        controller = new InstructionController(instructionService, mock(UserService.class),
+                mock(TelegramAuthService.class), accessService, mock(InstructionSearchService.class),
+                qrCodeResolver);
+    }
+
+    @Test
+    void storedGzipPageIsServedWithoutRendering() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        String view = controller.viewInstruction(INSTRUCTION_ID, user, new ExtendedModelMap(),
+                new RedirectAttributesModelMap(), gzipRequest(response), response);
+
+        assertNull(view);
+        assertEquals("gzip", response.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertEquals("private, no-cache", response.getHeader(HttpHeaders.CACHE_CONTROL));
+        assertEquals("\"abc-gzip\"", response.getHeader(HttpHeaders.ETAG));
+        assertArrayEquals(GZIP_BODY, response.getContentAsByteArray());
+    }
+
+    @Test
+    void flashMessageIsRenderedAndNotCached() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        // Так flash-атрибуты после редиректа попадают в модель обработчика
+        Model model = new ExtendedModelMap().addAttribute("success", "Вам открыт доступ к инструкции: Инструкция");
+
+        String view = controller.viewInstruction(INSTRUCTION_ID, user, model,
+                new RedirectAttributesModelMap(), gzipRequest(response), response);
+
+        assertEquals("instruction", view);
+        assertSame(page, model.getAttribute("instruction"));
+        assertNull(response.getHeader(HttpHeaders.CONTENT_ENCODING));
+        assertNull(response.getHeader(HttpHeaders.ETAG));
+        assertEquals("private, no-store", response.getHeader(HttpHeaders.CACHE_CONTROL));
+        assertEquals(0, response.getContentAsByteArray().length);
+    }
+
+    @Test
+    void anonymousReferralRedirectEncodesCode() {
+        String code = "QR 1&role=ADMIN#ы";
+        when(qrCodeResolver.resolve(code)).thenReturn(Optional.of(new InstructionSummary(
+                INSTRUCTION_ID, "Инструкция", code, null, null)));
+
+        String view = controller.handleReferral(code, null, new RedirectAttributesModelMap());
+
+        assertEquals("redirect:/register?ref=QR%201%26role%3DADMIN%23%D1%8B", view);
+    }
+
+    private static ServletWebRequest gzipRequest(MockHttpServletResponse response) {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/instruction/" + INSTRUCTION_ID);
+        request.addHeader(HttpHeaders.ACCEPT_ENCODING, "gzip, deflate");
+        return new ServletWebRequest(request, response);
+    }
+}
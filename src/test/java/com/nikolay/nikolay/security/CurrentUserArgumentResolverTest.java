@@ -0,0 +1,134 @@
+package com.nikolay.nikolay.security;
+
+import com.nikolay.nikolay.dto.UserSummary;
+import com.nikolay.nikolay.model.User;
+import com.nikolay.nikolay.repository.DataMigrationRepository;
+import com.nikolay.nikolay.repository.UserInstructionAccessRepository;
+import com.nikolay.nikolay.repository.UserRepository;
+import com.nikolay.nikolay.service.InstructionAccessService;
+import com.nikolay.nikolay.service.QrCodeResolver;
+import com.nikolay.nikolay.service.UserService;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.core.MethodParameter;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.cache.NullUserCache;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Фиксирует число запросов к users при определении текущего пользователя (по статистике Hibernate):
+ * один SELECT на HTTP-запрос, сколько бы параметров @CurrentUser ни было у обработчиков.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+class CurrentUserArgumentResolverTest {
+
+    private static final String PHONE = "+79990000011";
+
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private UserInstructionAccessRepository accessRepository;
+    @Autowired
+    private TestEntityManager entityManager;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private CurrentUserArgumentResolver resolver;
+    private MethodParameter firstParameter;
+    private MethodParameter secondParameter;
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() throws NoSuchMethodException {
+        InstructionAccessService accessService = new InstructionAccessService(accessRepository,
+                mock(DataMigrationRepository.class), 100, Duration.ofMinutes(1));
+        UserService userService = new UserService(userRepository, new BCryptPasswordEncoder(4),
+                mock(QrCodeResolver.class), accessService, new NullUserCache());
+        resolver = new CurrentUserArgumentResolver(userService);
+
+        Method handler = getClass().getDeclaredMethod("handler", UserSummary.class, UserSummary.class);
+        firstParameter = new MethodParameter(handler, 0);
+        secondParameter = new MethodParameter(handler, 1);
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+
+        User user = new User();
+        user.setPhone(PHONE);
+        user.setPassword("$2a$04$N9qo8uLOickgx2ZMRZoMyeIjZAgcfl7p92ldGxad68LJZdL17lhWy");
+        user.setReferralLink("");
+        entityManager.persistAndFlush(user);
+        entityManager.clear();
+    }
+
+    @AfterEach
+    void tearDown() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void currentUserIsLoadedOncePerRequest() {
+        SecurityContextHolder.getContext().setAuthentication(UsernamePasswordAuthenticationToken.authenticated(
+                PHONE, null, AuthorityUtils.createAuthorityList("ROLE_USER")));
+
+        statistics.clear();
+        ServletWebRequest request = new ServletWebRequest(new MockHttpServletRequest());
+        UserSummary first = (UserSummary) resolver.resolveArgument(firstParameter, null, request, null);
+        UserSummary second = (UserSummary) resolver.resolveArgument(secondParameter, null, request, null);
+
+        assertEquals(PHONE, first.getPhone());
+        assertSame(first, second);
+        assertEquals(1, statistics.getPrepareStatementCount());
+
+        // Следующий HTTP-запрос загружает пользователя заново — ровно одним SELECT
+        resolver.resolveArgument(firstParameter, null, new ServletWebRequest(new MockHttpServletRequest()), null);
+        assertEquals(2, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void missingUserIsRememberedForTheRequest() {
+        SecurityContextHolder.getContext().setAuthentication(UsernamePasswordAuthenticationToken.authenticated(
+                "+79990000099", null, AuthorityUtils.createAuthorityList("ROLE_USER")));
+
+        statistics.clear();
+        ServletWebRequest request = new ServletWebRequest(new MockHttpServletRequest());
+        assertNull(resolver.resolveArgument(firstParameter, null, request, null));
+        assertNull(resolver.resolveArgument(secondParameter, null, request, null));
+
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void anonymousRequestDoesNotQueryUsers() {
+        statistics.clear();
+        ServletWebRequest request = new ServletWebRequest(new MockHttpServletRequest());
+
+        assertNull(resolver.resolveArgument(firstParameter, null, request, null));
+        assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
+    @SuppressWarnings("unused")
+    private void handler(@CurrentUser UserSummary first, @CurrentUser UserSummary second) {
+    }
+}
@@ -0,0 +1,45 @@
+package com.nikolay.nikolay.security;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OverloadAwareDaoAuthenticationProviderTest {
+
+    private static final String PHONE = "+79990000001";
+
+    @Test
+    void hashingRejectionForCachedUserIsNotRetriedAgainstDatabase() {
+        UserDetails cached = User.withUsername(PHONE).password("{bcrypt}hash").roles("USER").build();
+        UserCache userCache = mock(UserCache.class);
+        when(userCache.getUserFromCache(PHONE)).thenReturn(cached);
+        UserDetailsService userDetailsService = mock(UserDetailsService.class);
+        PasswordEncoder passwordEncoder = mock(PasswordEncoder.class);
+        when(passwordEncoder.matches(any(), anyString()))
+                .thenThrow(new PasswordHashingRejectedException("Сервер перегружен", 2));
+
+        OverloadAwareDaoAuthenticationProvider provider = new OverloadAwareDaoAuthenticationProvider();
+        provider.setUserDetailsService(userDetailsService);
+        provider.setPasswordEncoder(passwordEncoder);
+        provider.setUserCache(userCache);
+
+        assertThrows(PasswordHashingRejectedException.class,
+                () -> provider.authenticate(UsernamePasswordAuthenticationToken.unauthenticated(PHONE, "secret")));
+
+        verify(passwordEncoder, times(1)).matches(any(), anyString());
+        verify(userDetailsService, never()).loadUserByUsername(anyString());
+    }
+}
@@ -0,0 +1,240 @@
+package com.nikolay.nikolay.service;
+
+import com.nikolay.nikolay.dto.ExportJobStatus;
+import com.nikolay.nikolay.enums.ExportJobState;
+import com.nikolay.nikolay.repository.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Проверка жизненного цикла фоновых выгрузок: состояния задачи, ограничение очереди, ошибки и удаление по сроку хранения.
+ */
+class ExportJobServiceTest {
+
+    private static final String CSV = "\uFEFFID;Телефон\r\n\"1\";\"+79990000001\"\r\n\"2\";\"+79990000002\"\r\n";
+    private static final Duration AWAIT_TIMEOUT = Duration.ofSeconds(5);
+
+    @TempDir
+    private Path directory;
+
+    private UserExportService userExportService;
+    private UserRepository userRepository;
+    private ExportJobService jobService;
+
+    @BeforeEach
+    void setUp() {
+        userExportService = mock(UserExportService.class);
+        userRepository = mock(UserRepository.class);
+        when(userRepository.count()).thenReturn(2L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (jobService != null) {
+            jobService.shutdown();
+        }
+    }
+
+    @Test
+    void finishedJobExposesCompressedFileAndStatus() throws Exception {
+        when(userExportService.writeCsv(any(Writer.class), any(LongConsumer.class))).thenAnswer(invocation -> {
+            invocation.getArgument(0, Writer.class).write(CSV);
+            invocation.getArgument(1, LongConsumer.class).accept(2);
+            return 2L;
+        });
+        jobService = createService(2, 4, Duration.ofHours(1));
+
+        String jobId = jobService.startUsersExport();
+        ExportJobStatus status = awaitFinished(jobId);
+
+        assertEquals(ExportJobState.DONE, status.getState());
+        assertEquals(2, status.getRowsWritten());
+        assertEquals(2, status.getTotalRows());
+        assertEquals(100, status.getPercent());
+        assertNotNull(status.getFinishedAt());
+        Path file = jobService.getFile(jobId).orElseThrow();
+        assertEquals(directory, file.getParent());
+        assertEquals(Files.size(file), status.getFileSize());
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            assertEquals(CSV, new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void runningJobReportsProgressAndHasNoFileYet() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(userExportService.writeCsv(any(Writer.class), any(LongConsumer.class))).thenAnswer(invocation -> {
+            invocation.getArgument(1, LongConsumer.class).accept(1);
+            started.countDown();
+            assertTrue(release.await(AWAIT_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+            return 1L;
+        });
+        jobService = createService(1, 1, Duration.ofHours(1));
+
+        String jobId = jobService.startUsersExport();
+        assertTrue(started.await(AWAIT_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+
+        ExportJobStatus status = jobService.getStatus(jobId).orElseThrow();
+        assertEquals(ExportJobState.RUNNING, status.getState());
+        assertEquals(1, status.getRowsWritten());
+        assertEquals(50, status.getPercent());
+        assertFalse(status.isFinished());
+        assertTrue(jobService.getFile(jobId).isEmpty());
+
+        release.countDown();
+        assertEquals(ExportJobState.DONE, awaitFinished(jobId).getState());
+    }
+
+    @Test
+    void jobsBeyondThreadsAndQueueAreRejected() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(userExportService.writeCsv(any(Writer.class), any(LongConsumer.class))).thenAnswer(invocation -> {
+            started.countDown();
+            assertTrue(release.await(AWAIT_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+            return 0L;
+        });
+        jobService = createService(1, 1, Duration.ofHours(1));
+
+        String running = jobService.startUsersExport();
+        assertTrue(started.await(AWAIT_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+        String queued = jobService.startUsersExport();
+
+        assertEquals(ExportJobState.QUEUED, jobService.getStatus(queued).orElseThrow().getState());
+        assertThrows(RejectedExecutionException.class, jobService::startUsersExport);
+
+        release.countDown();
+        assertEquals(ExportJobState.DONE, awaitFinished(running).getState());
+        assertEquals(ExportJobState.DONE, awaitFinished(queued).getState());
+        // Отклоненная задача не остается в списке: в каталоге только файлы двух выполненных выгрузок
+        assertEquals(2, listFiles().length);
+    }
+
+    @Test
+    void failedJobKeepsErrorAndRemovesPartialFile() throws Exception {
+        when(userExportService.writeCsv(any(Writer.class), any(LongConsumer.class))).thenAnswer(invocation -> {
+            invocation.getArgument(0, Writer.class).write(CSV);
+            throw new IOException("соединение с базой потеряно");
+        });
+        jobService = createService(1, 1, Duration.ofHours(1));
+
+        String jobId = jobService.startUsersExport();
+        ExportJobStatus status = awaitFinished(jobId);
+
+        assertEquals(ExportJobState.FAILED, status.getState());
+        assertEquals("соединение с базой потеряно", status.getError());
+        assertTrue(jobService.getFile(jobId).isEmpty());
+        assertEquals(0, listFiles().length);
+    }
+
+    @Test
+    void expiredJobsAreRemovedWithTheirFiles() throws Exception {
+        when(userExportService.writeCsv(any(Writer.class), any(LongConsumer.class))).thenReturn(0L);
+        jobService = createService(1, 1, Duration.ZERO);
+
+        String jobId = jobService.startUsersExport();
+        awaitFinished(jobId);
+        assertEquals(1, listFiles().length);
+
+        jobService.removeExpiredJobs();
+
+        assertTrue(jobService.getStatus(jobId).isEmpty());
+        assertEquals(0, listFiles().length);
+    }
+
+    @Test
+    void freshAndRunningJobsSurviveCleanup() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(userExportService.writeCsv(any(Writer.class), any(LongConsumer.class)))
+                .thenReturn(0L)
+                .thenAnswer(invocation -> {
+                    started.countDown();
+                    assertTrue(release.await(AWAIT_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+                    return 0L;
+                });
+        jobService = createService(1, 1, Duration.ofHours(1));
+
+        String finished = jobService.startUsersExport();
+        awaitFinished(finished);
+        String running = jobService.startUsersExport();
+        assertTrue(started.await(AWAIT_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+
+        jobService.removeExpiredJobs();
+
+        assertTrue(jobService.getFile(finished).isPresent());
+        assertEquals(ExportJobState.RUNNING, jobService.getStatus(running).orElseThrow().getState());
+        release.countDown();
+        awaitFinished(running);
+    }
+
+    @Test
+    void shutdownDeletesAllFiles() throws Exception {
+        when(userExportService.writeCsv(any(Writer.class), any(LongConsumer.class))).thenReturn(0L);
+        jobService = createService(1, 1, Duration.ofHours(1));
+
+        String jobId = jobService.startUsersExport();
+        awaitFinished(jobId);
+        jobService.shutdown();
+
+        assertTrue(jobService.getStatus(jobId).isEmpty());
+        assertEquals(0, listFiles().length);
+    }
+
+    @Test
+    void unknownJobHasNoStatusOrFile() {
+        jobService = createService(1, 1, Duration.ofHours(1));
+
+        assertTrue(jobService.getStatus("missing").isEmpty());
+        assertTrue(jobService.getStatus(null).isEmpty());
+        assertTrue(jobService.getFile("missing").isEmpty());
+    }
+
+    private ExportJobService createService(int maxConcurrentJobs, int queueCapacity, Duration ttl) {
+        return new ExportJobService(userExportService, userRepository, maxConcurrentJobs, queueCapacity,
+                directory.toString(), ttl);
+    }
+
+    private ExportJobStatus awaitFinished(String jobId) throws InterruptedException {
+        long deadline = System.nanoTime() + AWAIT_TIMEOUT.toNanos();
+        ExportJobStatus status = jobService.getStatus(jobId).orElseThrow();
+        while (!status.isFinished() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+            status = jobService.getStatus(jobId).orElseThrow();
+        }
+        assertTrue(status.isFinished(), "выгрузка не завершилась: " + status.getState());
+        return status;
+    }
+
+    private Path[] listFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.toArray(Path[]::new);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package com.nikolay.nikolay.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверка хранилища кодов в памяти: сравнение кодов, истечение срока, очистка, заполнение и параллельные запросы.
+ */
+class InMemoryVerificationCodeStoreTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void matchDistinguishesValidInvalidAndMissingCodes() {
+        InMemoryVerificationCodeStore store = new InMemoryVerificationCodeStore(
+                Duration.ofMinutes(5), 10, meterRegistry);
+        assertTrue(store.put("+79990000001", "1234"));
+
+        assertEquals(VerificationCodeStore.Match.VALID, store.match("+79990000001", "1234"));
+        assertEquals(VerificationCodeStore.Match.INVALID, store.match("+79990000001", "4321"));
+        assertEquals(VerificationCodeStore.Match.INVALID, store.match("+79990000001", null));
+        assertEquals(VerificationCodeStore.Match.MISSING, store.match("+79990000002", "1234"));
+
+        assertTrue(store.remove("+79990000001"));
+        assertFalse(store.remove("+79990000001"));
+        assertEquals(VerificationCodeStore.Match.MISSING, store.match("+79990000001", "1234"));
+    }
+
+    @Test
+    void codeExpiresAfterTtlAndIsRemovedOnMatch() throws InterruptedException {
+        InMemoryVerificationCodeStore store = new InMemoryVerificationCodeStore(
+                Duration.ofMillis(200), 10, meterRegistry);
+        store.put("+79990000001", "1234");
+        assertEquals(VerificationCodeStore.Match.VALID, store.match("+79990000001", "1234"));
+
+        Thread.sleep(300);
+
+        assertEquals(VerificationCodeStore.Match.MISSING, store.match("+79990000001", "1234"));
+        assertEquals(0, liveCodes());
+        assertEquals(1, evicted("expired"));
+    }
+
+    @Test
+    void sweepRemovesOnlyExpiredCodesAndCountsThem() {
+        InMemoryVerificationCodeStore expiring = new InMemoryVerificationCodeStore(Duration.ZERO, 10, meterRegistry);
+        expiring.put("+79990000001", "1111");
+        expiring.put("+79990000002", "2222");
+        expiring.put("+79990000003", "3333");
+        assertEquals(3, liveCodes());
+
+        expiring.removeExpired();
+
+        assertEquals(0, liveCodes());
+        assertEquals(3, evicted("expired"));
+
+        MeterRegistry otherRegistry = new SimpleMeterRegistry();
+        InMemoryVerificationCodeStore fresh = new InMemoryVerificationCodeStore(Duration.ofMinutes(5), 10, otherRegistry);
+        fresh.put("+79990000001", "1111");
+        fresh.removeExpired();
+        assertEquals(VerificationCodeStore.Match.VALID, fresh.match("+79990000001", "1111"));
+        assertEquals(0, otherRegistry.get("verification.codes.evicted").tag("reason", "expired").counter().count());
+    }
+
+    @Test
+    void fullStoreFreesExpiredCodesBeforeRejecting() {
+        InMemoryVerificationCodeStore store = new InMemoryVerificationCodeStore(Duration.ZERO, 2, meterRegistry);
+        store.put("+79990000001", "1111");
+        store.put("+79990000002", "2222");
+
+        assertTrue(store.hasCapacityFor("+79990000003"));
+        assertTrue(store.put("+79990000003", "3333"));
+        assertEquals(2, evicted("expired"));
+        assertEquals(0, evicted("overflow"));
+    }
+
+    @Test
+    void concurrentPutAndMatchSeeOwnLatestCode() throws Exception {
+        InMemoryVerificationCodeStore store = new InMemoryVerificationCodeStore(
+                Duration.ofMinutes(5), 1_000, new SimpleMeterRegistry());
+
+        VerificationCodeStoreConcurrency.assertEachThreadSeesOwnCode(store, 16, 20_000);
+    }
+
+    @Test
+    void fullStoreRejectsNewPhonesButReplacesExistingCodes() {
+        InMemoryVerificationCodeStore store = new InMemoryVerificationCodeStore(
+                Duration.ofMinutes(5), 2, meterRegistry);
+        assertTrue(store.put("+79990000001", "1111"));
+        assertTrue(store.put("+79990000002", "2222"));
+
+        assertFalse(store.hasCapacityFor("+79990000003"));
+        assertFalse(store.put("+79990000003", "3333"));
+        assertTrue(store.hasCapacityFor("+79990000001"));
+        assertTrue(store.put("+79990000001", "4444"));
+        assertEquals(VerificationCodeStore.Match.VALID, store.match("+79990000001", "4444"));
+        assertEquals(VerificationCodeStore.Match.MISSING, store.match("+79990000003", "3333"));
+        assertEquals(2, liveCodes());
+        assertEquals(1, evicted("overflow"));
+    }
+
+    private double liveCodes() {
+        return meterRegistry.get("verification.codes.live").gauge().value();
+    }
+
+    private double evicted(String reason) {
+        return meterRegistry.get("verification.codes.evicted").tag("reason", reason).counter().count();
+    }
+}
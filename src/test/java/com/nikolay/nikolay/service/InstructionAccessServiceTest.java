@@ -0,0 +1,150 @@
+package com.nikolay.nikolay.service;
+
+import com.nikolay.nikolay.repository.DataMigrationRepository;
+import com.nikolay.nikolay.repository.UserInstructionAccessRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.transaction.TestTransaction;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверка прав доступа к инструкциям на H2: проверка доступа только по кэшу со сбросом после фиксации выдачи
+ * и однократный перенос доступов из users.referral_link по отметке в data_migration.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+class InstructionAccessServiceTest {
+
+    // В H2 нет FIND_IN_SET из MySQL, которую использует запрос миграции: позиция строки в списке через запятую или 0
+    private static final String FIND_IN_SET_ALIAS = """
+            CREATE ALIAS IF NOT EXISTS FIND_IN_SET AS $$
+            int findInSet(String value, String list) {
+                if (value == null || list == null) {
+                    return 0;
+                }
+                String[] items = list.split(",", -1);
+                for (int i = 0; i < items.length; i++) {
+                    if (items[i].equals(value)) {
+                        return i + 1;
+                    }
+                }
+                return 0;
+            }
+            $$""";
+
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private UserInstructionAccessRepository accessRepository;
+    @Autowired
+    private DataMigrationRepository migrationRepository;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private JdbcTemplate jdbcTemplate;
+    private InstructionAccessService accessService;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute(FIND_IN_SET_ALIAS);
+        accessService = new InstructionAccessService(accessRepository, migrationRepository, 100, Duration.ofMinutes(1));
+    }
+
+    @Test
+    void negativeAccessCheckDoesNotQueryDatabase() {
+        long instruction = insertInstruction("QR-A");
+        long user = insertUser("+79990000001", "");
+        accessService.getAccessSet(user);
+
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+        for (int i = 0; i < 10; i++) {
+            assertFalse(accessService.hasAccess(user, instruction));
+        }
+
+        assertEquals(0, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void grantIsVisibleAfterCommitOnly() {
+        long instruction = insertInstruction("QR-A");
+        long user = insertUser("+79990000001", "");
+        assertFalse(accessService.hasAccess(user, instruction));
+
+        assertTrue(accessService.grantAccess(user, instruction));
+        // До фиксации параллельный запрос все равно не увидел бы вставку: набор в кэше сбрасывается только после нее
+        assertFalse(accessService.hasAccess(user, instruction));
+
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+        try {
+            assertTrue(accessService.hasAccess(user, instruction));
+        } finally {
+            jdbcTemplate.update("DELETE FROM user_instruction_access WHERE user_id = ?", user);
+            jdbcTemplate.update("DELETE FROM users WHERE id = ?", user);
+            jdbcTemplate.update("DELETE FROM instructions WHERE id = ?", instruction);
+        }
+    }
+
+    @Test
+    void referralLinksAreMigratedOnceAndMarked() {
+        long first = insertInstruction("QR-A");
+        long second = insertInstruction("QR-B");
+        long user = insertUser("+79990000001", "QR-A, QR-B");
+
+        accessService.migrateReferralLinks();
+
+        assertTrue(accessService.hasAccess(user, first));
+        assertTrue(accessService.hasAccess(user, second));
+        assertTrue(migrationRepository.existsById(InstructionAccessService.REFERRAL_LINKS_MIGRATION));
+
+        // Отозванный после миграции доступ не возвращается при следующем старте
+        jdbcTemplate.update("DELETE FROM user_instruction_access");
+        accessService.invalidateAccessSet(user);
+        accessService.migrateReferralLinks();
+
+        assertEquals(0, accessRepository.count());
+    }
+
+    @Test
+    void populatedTableWithoutMarkerIsOnlyMarked() {
+        long instruction = insertInstruction("QR-A");
+        long migratedUser = insertUser("+79990000001", "");
+        long pendingUser = insertUser("+79990000002", "QR-A");
+        accessService.grantAccess(migratedUser, instruction);
+
+        accessService.migrateReferralLinks();
+
+        assertFalse(accessService.hasAccess(pendingUser, instruction));
+        assertEquals(1, accessRepository.count());
+        assertTrue(migrationRepository.existsById(InstructionAccessService.REFERRAL_LINKS_MIGRATION));
+    }
+
+    private long insertInstruction(String qrCode) {
+        jdbcTemplate.update("INSERT INTO instructions (title, content, qr_code, available) VALUES (?, 'Текст', ?, TRUE)",
+                "Инструкция " + qrCode, qrCode);
+        return jdbcTemplate.queryForObject("SELECT id FROM instructions WHERE qr_code = ?", Long.class, qrCode);
+    }
+
+    private long insertUser(String phone, String referralLink) {
+        jdbcTemplate.update("INSERT INTO users (phone, password, referral_link, role, phone_verified) " +
+                "VALUES (?, 'x', ?, 'USER', FALSE)", phone, referralLink);
+        return jdbcTemplate.queryForObject("SELECT id FROM users WHERE phone = ?", Long.class, phone);
+    }
+}
@@ -0,0 +1,84 @@
+package com.nikolay.nikolay.service;
+
+import com.nikolay.nikolay.repository.InstructionRepository;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Задержка поиска по индексу из 10 000 инструкций со сгенерированным русским текстом (~200 слов каждая).
+ * Запуск: mvn test-compile, затем main этого класса (из IDE или java -cp с тестовым classpath).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InstructionSearchBenchmark {
+
+    private static final int INSTRUCTIONS = 10_000;
+    private static final int WORDS_PER_INSTRUCTION = 200;
+
+    private static final String[] VOCABULARY = {
+            "тонометр", "ингалятор", "небулайзер", "глюкометр", "термометр", "давление", "измерение", "манжета",
+            "плечо", "запястье", "батарейка", "аккумулятор", "зарядка", "экран", "кнопка", "память", "результат",
+            "ошибка", "очистка", "фильтр", "маска", "трубка", "компрессор", "лекарство", "раствор", "дозировка",
+            "пациент", "ребенок", "взрослый", "температура", "хранение", "гарантия", "сервис", "инструкция",
+            "включение", "выключение", "настройка", "калибровка", "тест", "полоска", "ланцет", "кровь", "сахар",
+            "пульс", "аритмия", "индикатор", "сигнал", "звук", "дисплей", "корпус", "крышка", "камера", "емкость"
+    };
+    private static final String[] ENDINGS = {"", "а", "ы", "ом", "ой", "ами", "ах", "е", "у"};
+
+    @Param({"тонометр", "давлению манжеты", "ингалятор маска раствор", "отсутствующий"})
+    public String query;
+
+    private InstructionSearchService searchService;
+
+    @Setup
+    public void setUp() {
+        searchService = new InstructionSearchService(mock(InstructionRepository.class));
+        Random random = new Random(42);
+        StringBuilder content = new StringBuilder();
+        for (long id = 1; id <= INSTRUCTIONS; id++) {
+            content.setLength(0);
+            content.append("<p>");
+            for (int w = 0; w < WORDS_PER_INSTRUCTION; w++) {
+                content.append(word(random)).append(w % 12 == 11 ? ".</p><p>" : " ");
+            }
+            content.append("</p>");
+            String title = word(random) + " " + word(random) + " " + id;
+            searchService.index(InstructionSearchServiceTest.instruction(id, title, content.toString()));
+        }
+    }
+
+    private static String word(Random random) {
+        return VOCABULARY[random.nextInt(VOCABULARY.length)] + ENDINGS[random.nextInt(ENDINGS.length)];
+    }
+
+    @Benchmark
+    public List<Long> search() {
+        return searchService.search(query, id -> true);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(InstructionSearchBenchmark.class.getSimpleName()).build()).run();
+    }
+}
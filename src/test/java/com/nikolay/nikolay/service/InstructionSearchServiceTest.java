@@ -0,0 +1,89 @@
+package com.nikolay.nikolay.service;
+
+import com.nikolay.nikolay.model.Instruction;
+import com.nikolay.nikolay.repository.InstructionRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Проверка разбиения русского текста на термины и поиска по префиксу в индексе инструкций.
+ */
+class InstructionSearchServiceTest {
+
+    private InstructionSearchService searchService;
+
+    @BeforeEach
+    void setUp() {
+        searchService = new InstructionSearchService(mock(InstructionRepository.class));
+        searchService.index(instruction(1L, "Тонометр автоматический", "<p>Измерение давления на плече</p>"));
+        searchService.index(instruction(2L, "Ингалятор компрессорный", "<p>Ингаляции при <b>простуде</b>; давление 2 бар</p>"));
+        searchService.index(instruction(3L, "Ёмкость для ингалятора", "<script>var давление = 1;</script><p>Мытьё и сушка</p>"));
+    }
+
+    @Test
+    void tokenizeSplitsCyrillicLowercasesAndFoldsYo() {
+        assertEquals(List.of("емкость", "мытье", "омрон", "m3", "измерение"),
+                List.copyOf(InstructionSearchService.tokenize("Ёмкость, МЫТЬЁ: Омрон-M3 (измерение)")));
+        assertTrue(InstructionSearchService.tokenize(" \t,.;").isEmpty());
+    }
+
+    @Test
+    void stripHtmlDropsTagsScriptsAndEntities() {
+        Set<String> tokens = InstructionSearchService.tokenize(InstructionSearchService.stripHtml(
+                "<style>p{color:red}</style><p>Сушка&nbsp;<i>феном</i></p><script>alert(1)</script>"));
+        assertEquals(List.of("сушка", "феном"), List.copyOf(tokens));
+    }
+
+    @Test
+    void stemDropsRussianEndingsButKeepsShortWordsAndLatin() {
+        assertEquals("ингалятор", InstructionSearchService.stem("ингалятора"));
+        assertEquals("давлени", InstructionSearchService.stem("давлению"));
+        assertEquals("плеч", InstructionSearchService.stem("плече"));
+        assertEquals("сон", InstructionSearchService.stem("сон"));
+        assertEquals("omron", InstructionSearchService.stem("omron"));
+    }
+
+    @Test
+    void searchMatchesWordFormsByPrefix() {
+        // «ингаляторы» -> основа «ингалятор» находит «ингалятор» и «ингалятора»
+        assertEquals(List.of(2L, 3L), searchService.search("ингаляторы", id -> true));
+        // Префикс из середины слова не совпадает
+        assertEquals(List.of(), searchService.search("лятор", id -> true));
+        assertEquals(List.of(1L), searchService.search("тоно", id -> true));
+    }
+
+    @Test
+    void searchRequiresAllTermsRanksTitleMatchesFirstAndIgnoresScripts() {
+        // «давление» есть в содержимом 1 и 2; в 3 только внутри script
+        assertEquals(List.of(1L, 2L), searchService.search("давление", id -> true));
+        assertEquals(List.of(2L), searchService.search("давление простуда", id -> true));
+        // Совпадение в названии (3: «ёмкость») выше совпадения только в тексте
+        searchService.index(instruction(4L, "Фильтр", "<p>Замена фильтра в ёмкости ингалятора</p>"));
+        assertEquals(List.of(3L, 4L), searchService.search("емкость", id -> true));
+    }
+
+    @Test
+    void searchSkipsInaccessibleAndReindexedTerms() {
+        assertEquals(List.of(3L), searchService.search("ингалятор", id -> id == 3L));
+
+        searchService.index(instruction(2L, "Небулайзер", "<p>Без старых слов</p>"));
+        assertEquals(List.of(3L), searchService.search("ингалятор", id -> true));
+        searchService.remove(3L);
+        assertEquals(List.of(), searchService.search("ингалятор", id -> true));
+    }
+
+    static Instruction instruction(Long id, String title, String content) {
+        Instruction instruction = new Instruction();
+        instruction.setId(id);
+        instruction.setTitle(title);
+        instruction.setContent(content);
+        return instruction;
+    }
+}
@@ -0,0 +1,63 @@
+package com.nikolay.nikolay.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Проверка хранилища кодов в БД (таблица verification_code создается Hibernate по сущности VerificationCode)
+ * при параллельных запросах из нескольких соединений.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+// Рабочие потоки пишут через собственные соединения, общая транзакция теста им не нужна
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class JdbcVerificationCodeStoreTest {
+
+    @Autowired
+    private DataSource dataSource;
+
+    private JdbcTemplate jdbcTemplate;
+    private JdbcVerificationCodeStore store;
+
+    @BeforeEach
+    void setUp() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        store = new JdbcVerificationCodeStore(jdbcTemplate, "test-secret", Duration.ofMinutes(5), 1000,
+                new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        jdbcTemplate.update("DELETE FROM verification_code");
+    }
+
+    @Test
+    void concurrentPutAndMatchSeeOwnLatestCode() throws Exception {
+        // Потоков меньше, чем соединений в пуле Hikari по умолчанию
+        VerificationCodeStoreConcurrency.assertEachThreadSeesOwnCode(store, 8, 500);
+
+        assertEquals(0, jdbcTemplate.queryForObject("SELECT COUNT(*) FROM verification_code", Integer.class));
+    }
+
+    @Test
+    void blankSecretFailsStartup() {
+        assertThrows(IllegalStateException.class, () -> new JdbcVerificationCodeStore(jdbcTemplate, " ",
+                Duration.ofMinutes(5), 1000, new SimpleMeterRegistry()));
+    }
+}
@@ -0,0 +1,106 @@
+package com.nikolay.nikolay.service;
+
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверка подписанной cookie с QR-кодом: подпись и проверка, подмена значения, истечение срока
+ * и обязательность секрета при работе нескольких экземпляров приложения.
+ */
+class PendingReferralServiceTest {
+
+    private static final String SECRET = "test-referral-secret";
+    private static final String QR_CODE = "QR-1 ы";
+
+    @Test
+    void rememberedCodeIsReadBack() {
+        PendingReferralService service = new PendingReferralService(SECRET, Duration.ofMinutes(30), true, "memory");
+
+        String value = remember(service, QR_CODE);
+
+        assertEquals(Optional.of(QR_CODE), service.read(requestWithCookie(value)));
+        // Другой экземпляр с тем же секретом принимает cookie
+        assertEquals(Optional.of(QR_CODE), new PendingReferralService(SECRET, Duration.ofMinutes(30), true, "jdbc")
+                .read(requestWithCookie(value)));
+    }
+
+    @Test
+    void tamperedCookieIsRejected() {
+        PendingReferralService service = new PendingReferralService(SECRET, Duration.ofMinutes(30), true, "memory");
+        String value = remember(service, QR_CODE);
+        String[] parts = value.split("\\.");
+
+        String otherCode = Base64.getUrlEncoder().withoutPadding().encodeToString("QR-2".getBytes(StandardCharsets.UTF_8));
+        String extendedExpiry = String.valueOf(Long.parseLong(parts[1]) + 86_400);
+        String flippedSignature = (parts[2].charAt(0) == 'A' ? 'B' : 'A') + parts[2].substring(1);
+
+        assertTrue(service.read(requestWithCookie(otherCode + "." + parts[1] + "." + parts[2])).isEmpty());
+        assertTrue(service.read(requestWithCookie(parts[0] + "." + extendedExpiry + "." + parts[2])).isEmpty());
+        assertTrue(service.read(requestWithCookie(parts[0] + "." + parts[1] + "." + flippedSignature)).isEmpty());
+        assertTrue(service.read(requestWithCookie(parts[0] + "." + parts[1])).isEmpty());
+        assertTrue(service.read(requestWithCookie("garbage")).isEmpty());
+        assertTrue(new PendingReferralService("other-secret", Duration.ofMinutes(30), true, "memory")
+                .read(requestWithCookie(value)).isEmpty());
+    }
+
+    @Test
+    void expiredCookieIsRejected() {
+        // Отрицательный срок дает подписанную cookie, которая уже истекла
+        PendingReferralService service = new PendingReferralService(SECRET, Duration.ofSeconds(-5), true, "memory");
+
+        String value = remember(service, QR_CODE);
+
+        assertTrue(service.read(requestWithCookie(value)).isEmpty());
+    }
+
+    @Test
+    void clearExpiresCookie() {
+        PendingReferralService service = new PendingReferralService(SECRET, Duration.ofMinutes(30), true, "memory");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        service.clear(response);
+
+        String header = response.getHeader(HttpHeaders.SET_COOKIE);
+        assertTrue(header.startsWith(PendingReferralService.COOKIE_NAME + "=;"), header);
+        assertTrue(header.contains("Max-Age=0"), header);
+    }
+
+    @Test
+    void blankSecretFailsStartupWithSharedCodeStore() {
+        assertThrows(IllegalStateException.class,
+                () -> new PendingReferralService("", Duration.ofMinutes(30), true, "jdbc"));
+    }
+
+    @Test
+    void blankSecretFallsBackToRandomKeyOnSingleInstance() {
+        assertDoesNotThrow(() -> new PendingReferralService("", Duration.ofMinutes(30), true, "memory"));
+    }
+
+    private static String remember(PendingReferralService service, String qrCode) {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        service.remember(response, qrCode);
+        String header = response.getHeader(HttpHeaders.SET_COOKIE);
+        assertTrue(header.startsWith(PendingReferralService.COOKIE_NAME + "="), header);
+        assertTrue(header.contains("HttpOnly") && header.contains("Secure") && header.contains("SameSite=Lax"), header);
+        return header.substring(PendingReferralService.COOKIE_NAME.length() + 1, header.indexOf(';'));
+    }
+
+    private static MockHttpServletRequest requestWithCookie(String value) {
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setCookies(new Cookie(PendingReferralService.COOKIE_NAME, value));
+        return request;
+    }
+}
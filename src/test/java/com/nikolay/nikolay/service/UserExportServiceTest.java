@@ -0,0 +1,123 @@
+package com.nikolay.nikolay.service;
+
+import com.nikolay.nikolay.model.User;
+import com.nikolay.nikolay.repository.UserRepository;
+import jakarta.persistence.EntityManager;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.jpa.HibernateHints;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Проверка выгрузки пользователей в CSV на H2: формат строк и то, что память не растет с числом выгруженных строк.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+class UserExportServiceTest {
+
+    private static final int LARGE_EXPORT_ROWS = 30_000;
+    // Замер кучи после сборки мусора — раз в столько строк
+    private static final int HEAP_SAMPLE_EVERY_ROWS = 5_000;
+    // Допустимый рост кучи за выгрузку: без отсоединения сущностей куча вырастает примерно на 7 МБ, с ним — на ~150 КБ
+    private static final long MAX_HEAP_GROWTH_BYTES = 2L * 1024 * 1024;
+
+    @Autowired
+    private DataSource dataSource;
+    @Autowired
+    private EntityManager entityManager;
+
+    private UserExportService exportService;
+
+    @BeforeEach
+    void setUp() {
+        // Подсказка fetch size = Integer.MIN_VALUE из репозитория включает потоковое чтение драйвера MySQL,
+        // H2 ее отвергает, поэтому тот же запрос выполняется с обычным размером выборки
+        UserRepository userRepository = mock(UserRepository.class);
+        when(userRepository.streamAllOrderById()).thenAnswer(invocation -> entityManager
+                .createQuery("SELECT u FROM User u ORDER BY u.id", User.class)
+                .setHint(HibernateHints.HINT_FETCH_SIZE, UserExportService.FLUSH_EVERY_ROWS)
+                .setHint(HibernateHints.HINT_READ_ONLY, true)
+                .getResultStream());
+        exportService = new UserExportService(userRepository, entityManager);
+    }
+
+    @Test
+    void csvHasBomHeaderAndQuotedFields() throws IOException {
+        insertUser("+79990000001", "QR-1", "ADMIN", "say \"hi\"");
+        insertUser("+79990000002", "", "USER", null);
+
+        StringWriter writer = new StringWriter();
+        long rows = exportService.writeCsv(writer);
+
+        assertEquals(2, rows);
+        String[] lines = writer.toString().split("\r\n");
+        assertEquals("\uFEFFID;Телефон;Telegram;Реферальная ссылка;Роль", lines[0]);
+        assertTrue(lines[1].endsWith(";\"+79990000001\";\"say \"\"hi\"\"\";\"QR-1\";\"ADMIN\""), lines[1]);
+        assertTrue(lines[2].endsWith(";\"+79990000002\";\"\";\"\";\"USER\""), lines[2]);
+    }
+
+    @Test
+    void largeExportKeepsPersistenceContextAndHeapFlat() throws IOException {
+        List<Object[]> users = new ArrayList<>(LARGE_EXPORT_ROWS);
+        for (int i = 0; i < LARGE_EXPORT_ROWS; i++) {
+            users.add(new Object[]{String.format("+7997%07d", i), "QR-" + (i % 100)});
+        }
+        new JdbcTemplate(dataSource).batchUpdate(
+                "INSERT INTO users (phone, password, referral_link, role, phone_verified) VALUES (?, 'x', ?, 'USER', FALSE)",
+                users);
+        users = null;
+
+        SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+        List<Integer> managedEntities = new ArrayList<>();
+        List<Long> heapSamples = new ArrayList<>();
+        long rows = exportService.writeCsv(Writer.nullWriter(), written -> {
+            managedEntities.add(session.getPersistenceContextInternal().getNumberOfManagedEntities());
+            if (written % HEAP_SAMPLE_EVERY_ROWS == 0) {
+                heapSamples.add(usedHeapAfterGc());
+            }
+        });
+
+        assertEquals(LARGE_EXPORT_ROWS, rows);
+        assertEquals(LARGE_EXPORT_ROWS / UserExportService.FLUSH_EVERY_ROWS + 1, managedEntities.size());
+        assertTrue(managedEntities.stream().allMatch(count -> count == 0), "сущностей в контексте: " + managedEntities);
+
+        // Результат запроса H2 держит целиком уже к первому замеру, дальше куча может расти только из-за выгрузки
+        long growth = heapSamples.get(heapSamples.size() - 1) - heapSamples.get(0);
+        assertTrue(growth < MAX_HEAP_GROWTH_BYTES, "рост кучи, байт: " + growth + ", замеры: " + heapSamples);
+    }
+
+    private void insertUser(String phone, String referralLink, String role, String telegram) {
+        new JdbcTemplate(dataSource).update(
+                "INSERT INTO users (phone, password, referral_link, role, telegram, phone_verified) VALUES (?, 'x', ?, ?, ?, FALSE)",
+                phone, referralLink, role, telegram);
+    }
+
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // Несколько проходов: System.gc() лишь подсказка, берем наименьшее значение
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+}
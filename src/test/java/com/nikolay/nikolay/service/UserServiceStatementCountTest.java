@@ -0,0 +1,145 @@
+package com.nikolay.nikolay.service;
+
+import com.nikolay.nikolay.dto.InstructionSummary;
+import com.nikolay.nikolay.model.User;
+import com.nikolay.nikolay.repository.DataMigrationRepository;
+import com.nikolay.nikolay.repository.UserInstructionAccessRepository;
+import com.nikolay.nikolay.repository.UserRepository;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.security.core.userdetails.UserCache;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.transaction.TestTransaction;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Фиксирует число SQL-инструкций в основных сценариях сохранения пользователя (по статистике Hibernate):
+ * регистрация, выдача доступа по QR-коду и привязка Telegram — по одной инструкции на операцию.
+ * Смена телефона стоит еще одного SELECT старого номера, чтобы сбросить запись кэша под ним.
+ */
+@DataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@ActiveProfiles("test")
+class UserServiceStatementCountTest {
+
+    // Хеш уже в формате BCrypt, поэтому registerUser не хеширует пароль повторно
+    private static final String PASSWORD_HASH = "$2a$04$N9qo8uLOickgx2ZMRZoMyeIjZAgcfl7p92ldGxad68LJZdL17lhWy";
+    private static final String QR_CODE = "QR-STATS";
+    private static final long INSTRUCTION_ID = 42L;
+
+    @Autowired
+    private UserRepository userRepository;
+    @Autowired
+    private UserInstructionAccessRepository accessRepository;
+    @Autowired
+    private TestEntityManager entityManager;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    private UserService userService;
+    private UserCache userCache;
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        QrCodeResolver qrCodeResolver = mock(QrCodeResolver.class);
+        when(qrCodeResolver.resolve(QR_CODE)).thenReturn(
+                Optional.of(new InstructionSummary(INSTRUCTION_ID, "Инструкция", QR_CODE, null, null)));
+        InstructionAccessService accessService = new InstructionAccessService(accessRepository,
+                mock(DataMigrationRepository.class), 100, Duration.ofMinutes(1));
+        userCache = mock(UserCache.class);
+        userService = new UserService(userRepository, new BCryptPasswordEncoder(4), qrCodeResolver, accessService,
+                userCache);
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    @Test
+    void newRegistrationIsSingleInsert() {
+        User user = newUser("+79990000001");
+
+        statistics.clear();
+        User saved = userService.registerUser(user);
+
+        assertNotNull(saved.getId());
+        assertEquals(1, statistics.getPrepareStatementCount());
+    }
+
+    @Test
+    void referralGrantIsSingleInsert() {
+        User saved = persist(newUser("+79990000002"));
+
+        statistics.clear();
+        assertTrue(userService.handleReferralLink(saved.getId(), QR_CODE));
+
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertTrue(accessRepository.existsByUserIdAndInstructionId(saved.getId(), INSTRUCTION_ID));
+    }
+
+    @Test
+    void telegramLinkIsSingleUpdate() {
+        User saved = persist(newUser("+79990000003"));
+
+        statistics.clear();
+        assertTrue(userService.updateTelegramInfo(saved.getId(), 123456789L, "telegram_user"));
+
+        assertEquals(1, statistics.getPrepareStatementCount());
+        assertEquals(123456789L, userRepository.findById(saved.getId()).orElseThrow().getTelegramId());
+    }
+
+    @Test
+    void phoneChangeEvictsOldAndNewPhoneAfterCommit() {
+        User managed = userRepository.findById(persist(newUser("+79990000004")).getId()).orElseThrow();
+        // Сущность управляемая и уже изменена: старый номер должен прийти из БД, а не из нее
+        managed.setPhone("+79990000005");
+
+        statistics.clear();
+        userService.registerUser(managed);
+
+        assertEquals(2, statistics.getPrepareStatementCount());
+        verify(userCache, never()).removeUserFromCache("+79990000004");
+
+        TestTransaction.flagForCommit();
+        TestTransaction.end();
+        try {
+            verify(userCache).removeUserFromCache("+79990000004");
+            verify(userCache).removeUserFromCache("+79990000005");
+        } finally {
+            TestTransaction.start();
+            userRepository.deleteById(managed.getId());
+            TestTransaction.flagForCommit();
+            TestTransaction.end();
+        }
+    }
+
+    private User persist(User user) {
+        User saved = entityManager.persistAndFlush(user);
+        entityManager.clear();
+        return saved;
+    }
+
+    private static User newUser(String phone) {
+        User user = new User();
+        user.setPhone(phone);
+        user.setPassword(PASSWORD_HASH);
+        user.setReferralLink("");
+        return user;
+    }
+}
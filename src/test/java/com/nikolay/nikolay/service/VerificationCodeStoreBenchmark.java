@@ -0,0 +1,105 @@
+package com.nikolay.nikolay.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Пропускная способность хранилищ кодов подтверждения: сохранение кода и его проверка, 4 потока, у каждого свой номер.
+ * Хранилище в БД проверяется на H2 в памяти в режиме MySQL, поэтому результат показывает накладные расходы
+ * HMAC и JDBC, но не сетевую задержку до сервера MySQL.
+ * Запуск: mvn test-compile, затем main этого класса (из IDE или java -cp с тестовым classpath).
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class VerificationCodeStoreBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Stores {
+
+        @Param({"memory", "jdbc"})
+        public String store;
+
+        VerificationCodeStore codeStore;
+        private HikariDataSource dataSource;
+        private final AtomicInteger nextPhone = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            if ("memory".equals(store)) {
+                codeStore = new InMemoryVerificationCodeStore(Duration.ofMinutes(5), 100_000, new SimpleMeterRegistry());
+                return;
+            }
+            dataSource = new HikariDataSource();
+            dataSource.setJdbcUrl("jdbc:h2:mem:codes;MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+            dataSource.setMaximumPoolSize(8);
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            // Та же схема, что Hibernate строит по сущности VerificationCode
+            jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS verification_code (phone VARCHAR(20) PRIMARY KEY, "
+                    + "code_hash VARBINARY(32) NOT NULL, expires_at BIGINT NOT NULL)");
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_verification_code_expires "
+                    + "ON verification_code (expires_at)");
+            codeStore = new JdbcVerificationCodeStore(jdbcTemplate, "benchmark-secret", Duration.ofMinutes(5), 1000,
+                    new SimpleMeterRegistry());
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            if (dataSource != null) {
+                dataSource.close();
+            }
+        }
+
+        String nextPhone() {
+            return String.format("+7999%07d", nextPhone.getAndIncrement());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Caller {
+
+        String phone;
+        int round;
+
+        @Setup(Level.Trial)
+        public void setUp(Stores stores) {
+            phone = stores.nextPhone();
+        }
+    }
+
+    @Benchmark
+    public VerificationCodeStore.Match putAndMatch(Stores stores, Caller caller) {
+        String code = String.format("%04d", caller.round++ % 10_000);
+        stores.codeStore.put(caller.phone, code);
+        return stores.codeStore.match(caller.phone, code);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(VerificationCodeStoreBenchmark.class.getSimpleName()).build()).run();
+    }
+}
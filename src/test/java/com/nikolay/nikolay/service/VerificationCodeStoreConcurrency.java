@@ -0,0 +1,57 @@
+package com.nikolay.nikolay.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Общий сценарий нагрузочной проверки хранилищ кодов: каждый поток многократно сохраняет код для своего номера
+ * и сразу проверяет его, пока остальные потоки делают то же самое со своими номерами.
+ * Поток должен всегда видеть только свой последний код — ни старый, ни чужой.
+ */
+final class VerificationCodeStoreConcurrency {
+
+    private VerificationCodeStoreConcurrency() {
+    }
+
+    static void assertEachThreadSeesOwnCode(VerificationCodeStore store, int threads, int rounds) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String phone = String.format("+7999%07d", t);
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int r = 0; r < rounds; r++) {
+                        String code = String.format("%04d", r % 10_000);
+                        String previous = String.format("%04d", (r + 9_999) % 10_000);
+                        assertTrue(store.put(phone, code), () -> "put " + phone);
+                        assertEquals(VerificationCodeStore.Match.VALID, store.match(phone, code), () -> phone + " " + code);
+                        if (r > 0) {
+                            assertEquals(VerificationCodeStore.Match.INVALID, store.match(phone, previous),
+                                    () -> phone + " старый код " + previous);
+                        }
+                    }
+                    assertTrue(store.remove(phone), () -> "remove " + phone);
+                    assertEquals(VerificationCodeStore.Match.MISSING, store.match(phone, "0000"));
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                // get() пробрасывает ошибку проверки из рабочего потока
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
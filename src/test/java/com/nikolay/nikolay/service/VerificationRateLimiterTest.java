@@ -0,0 +1,112 @@
+package com.nikolay.nikolay.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Нагрузочная проверка ведер лимита звонков: при параллельных запросах выдается ровно capacity жетонов на ключ.
+ * Интервал пополнения — час, поэтому за время теста новые жетоны не появляются.
+ */
+class VerificationRateLimiterTest {
+
+    private static final Duration REFILL = Duration.ofHours(1);
+    private static final int THREADS = 16;
+
+    @Test
+    void singleKeyUnderContentionGrantsExactlyCapacity() throws Exception {
+        int capacity = 5;
+        // Повторяем с новым ведром, чтобы гонки при создании ведра и CAS проявились хотя бы раз
+        for (int round = 0; round < 200; round++) {
+            VerificationRateLimiter.TokenBuckets buckets = new VerificationRateLimiter.TokenBuckets(capacity, REFILL, 100);
+            AtomicInteger granted = new AtomicInteger();
+
+            runConcurrently(() -> {
+                for (int i = 0; i < 50; i++) {
+                    if (buckets.tryAcquire("+79990000001") == 0) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+
+            assertEquals(capacity, granted.get(), "раунд " + round);
+        }
+    }
+
+    @Test
+    void manyKeysUnderContentionEachGrantExactlyCapacity() throws Exception {
+        int capacity = 3;
+        int keys = 2_000;
+        // Запас по размеру кэша: Guava вытесняет по сегментам и может начать раньше, чем наберется maximumSize,
+        // а вытесненное ведро вернулось бы полным
+        VerificationRateLimiter.TokenBuckets buckets = new VerificationRateLimiter.TokenBuckets(capacity, REFILL, keys * 4L);
+        Map<String, AtomicInteger> granted = new ConcurrentHashMap<>();
+        List<String> phones = new ArrayList<>();
+        for (int i = 0; i < keys; i++) {
+            String phone = String.format("+7999%07d", i);
+            phones.add(phone);
+            granted.put(phone, new AtomicInteger());
+        }
+
+        runConcurrently(() -> {
+            // Каждый поток обходит ключи в своем порядке и запрашивает больше жетонов, чем есть
+            List<String> order = new ArrayList<>(phones);
+            Collections.shuffle(order);
+            for (int attempt = 0; attempt < capacity + 1; attempt++) {
+                for (String phone : order) {
+                    if (buckets.tryAcquire(phone) == 0) {
+                        granted.get(phone).incrementAndGet();
+                    }
+                }
+            }
+        });
+
+        granted.forEach((phone, count) -> assertEquals(capacity, count.get(), phone));
+        assertEquals(keys, buckets.size());
+    }
+
+    @Test
+    void exhaustedBucketReportsWaitUpToOneRefillInterval() {
+        VerificationRateLimiter.TokenBuckets buckets = new VerificationRateLimiter.TokenBuckets(2, REFILL, 100);
+        assertEquals(0, buckets.tryAcquire("10.0.0.1"));
+        assertEquals(0, buckets.tryAcquire("10.0.0.1"));
+
+        long wait = buckets.tryAcquire("10.0.0.1");
+        assertTrue(wait > 0 && wait <= REFILL.toNanos(), "ожидание " + wait);
+    }
+
+    private static void runConcurrently(Runnable task) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    task.run();
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.nikolay.nikolay.util;
+
+/**
+ * Прежняя реализация нормализации телефона на регулярных выражениях (без логирования).
+ * Эталон для проверки эквивалентности и базовая линия бенчмарка.
+ */
+final class LegacyPhoneNumbers {
+
+    private LegacyPhoneNumbers() {
+    }
+
+    static String digitsOnly(String value) {
+        return value.replaceAll("[^\\d]", "");
+    }
+
+    static String normalize(String phone) {
+        if (phone == null || phone.isBlank()) {
+            return null;
+        }
+        String digits = phone.replaceAll("[^\\d]", "");
+
+        if (digits.startsWith("8") && digits.length() == 11) {
+            digits = "7" + digits.substring(1);
+        } else if (digits.length() == 10 && !digits.startsWith("7")) {
+            digits = "7" + digits;
+        } else if (digits.startsWith("7") && digits.length() == 11) {
+            // Без изменений
+        } else if (digits.length() == 11 && !digits.startsWith("7")) {
+            if (phone.startsWith("+") && digits.length() >= 11) {
+                return "+" + digits;
+            } else {
+                return null;
+            }
+        } else {
+            return null;
+        }
+
+        if (digits.length() != 11 || !digits.startsWith("7")) {
+            return null;
+        }
+        return "+" + digits;
+    }
+}
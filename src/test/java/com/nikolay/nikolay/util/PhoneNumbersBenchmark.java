@@ -0,0 +1,53 @@
+package com.nikolay.nikolay.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение однопроходной нормализации телефона с прежней реализацией на регулярных выражениях
+ * на типичных форматах ввода из формы входа и регистрации.
+ * Запуск: mvn test-compile, затем main этого класса (из IDE или java -cp с тестовым classpath).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PhoneNumbersBenchmark {
+
+    private final String[] phones = {
+            "89991234567", "8 (999) 123-45-67", "+7 999 123 45 67", "+79991234567", "9991234567", "+1 999 123 45 67"
+    };
+
+    @Benchmark
+    public void legacyNormalize(Blackhole blackhole) {
+        for (String phone : phones) {
+            blackhole.consume(LegacyPhoneNumbers.normalize(phone));
+        }
+    }
+
+    @Benchmark
+    public void normalize(Blackhole blackhole) {
+        for (String phone : phones) {
+            blackhole.consume(PhoneNumbers.normalize(phone));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(PhoneNumbersBenchmark.class.getSimpleName()).build()).run();
+    }
+}
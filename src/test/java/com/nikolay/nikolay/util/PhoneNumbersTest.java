@@ -0,0 +1,51 @@
+package com.nikolay.nikolay.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Проверка эквивалентности однопроходной нормализации телефона прежней реализации на регулярных выражениях.
+ */
+class PhoneNumbersTest {
+
+    // Символы, из которых собираются случайные строки: цифры, типичные разделители и «похожие на цифры» символы
+    private static final char[] ALPHABET = "0123456789012345678978+ -()\t.٣５x".toCharArray();
+    private static final int RANDOM_CASES = 200_000;
+
+    private static final List<String> CORPUS = List.of(
+            "89991234567", "8 (999) 123-45-67", "+7 999 123 45 67", "79991234567", "+79991234567",
+            "9991234567", "(999) 123-45-67", "7991234567", "+19991234567", "19991234567", "+1 999 123 45 67",
+            "", " ", "\t", "+", "8", "899912345678", "+799912345678", "12345", "8-999-123-45-6",
+            "8\t999\t123\t45\t67", "+7(999)1234567", "٣٣٣٣٣٣٣٣٣٣", "８９９９１２３４５６７", "8 999 123 45 67 доб. 1",
+            "+7 999 123-45-67 ", " +79991234567", "00079991234567");
+
+    @Test
+    void normalizeMatchesLegacyImplementationOnCorpus() {
+        for (String phone : CORPUS) {
+            assertEquals(LegacyPhoneNumbers.normalize(phone), PhoneNumbers.normalize(phone), () -> "normalize(\"" + phone + "\")");
+            assertEquals(LegacyPhoneNumbers.digitsOnly(phone), PhoneNumbers.digitsOnly(phone), () -> "digitsOnly(\"" + phone + "\")");
+        }
+        assertEquals(LegacyPhoneNumbers.normalize(null), PhoneNumbers.normalize(null));
+        assertEquals("", PhoneNumbers.digitsOnly(null));
+    }
+
+    @Test
+    void normalizeMatchesLegacyImplementationOnRandomInput() {
+        Random random = new Random(20240515L);
+        StringBuilder builder = new StringBuilder();
+        for (int n = 0; n < RANDOM_CASES; n++) {
+            builder.setLength(0);
+            int length = random.nextInt(20);
+            for (int i = 0; i < length; i++) {
+                builder.append(ALPHABET[random.nextInt(ALPHABET.length)]);
+            }
+            String phone = builder.toString();
+            assertEquals(LegacyPhoneNumbers.normalize(phone), PhoneNumbers.normalize(phone), () -> "normalize(\"" + phone + "\")");
+            assertEquals(LegacyPhoneNumbers.digitsOnly(phone), PhoneNumbers.digitsOnly(phone), () -> "digitsOnly(\"" + phone + "\")");
+        }
+    }
+}